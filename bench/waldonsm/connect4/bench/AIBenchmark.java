@@ -0,0 +1,72 @@
+package waldonsm.connect4.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.ai.StupidAI;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * JMH benchmarks for Connect4AI.chooseColumn on the standard 7x6 board.  NegamaxAI searches
+ * to a fixed depth with an empty transposition table each time, so every call does the same
+ * work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AIBenchmark {
+
+	/**
+	 * A time budget long enough that the depth limit is always reached first
+	 */
+	private static final long NO_TIME_LIMIT = 24L * 60 * 60 * 1000;
+
+	@Param({"sparse", "dense"})
+	public String fill;
+
+	@Param({"8"})
+	public int depth;
+
+	private Connect4ModelImpl model;
+	private StupidAI stupid;
+	private NegamaxAI negamax;
+
+	@Setup
+	public void setUp() {
+		model = new Connect4ModelImpl(6, 7);
+		BenchPositions.play(model, BenchPositions.randomMoves(7, 6, BenchPositions.parseFill(fill), 42));
+		stupid = new StupidAI();
+		negamax = new NegamaxAI(NO_TIME_LIMIT, 1);
+	}
+
+	@Setup(Level.Invocation)
+	public void clearTable() {
+		negamax.getTranspositionTable().clear();
+	}
+
+	@Benchmark
+	public int stupidAI() {
+		return stupid.chooseColumn(model);
+	}
+
+	@Benchmark
+	public int negamaxAI() {
+		return negamax.chooseColumn(model, NO_TIME_LIMIT, depth);
+	}
+}
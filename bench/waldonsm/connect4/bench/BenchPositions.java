@@ -0,0 +1,82 @@
+package waldonsm.connect4.bench;
+
+import java.util.List;
+import java.util.Random;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * Builds the positions the benchmarks run on.  Positions are made by playing random moves
+ * from a fixed seed, skipping any move that would win, so the same position comes out on
+ * every run and the game is never already over.
+ */
+final class BenchPositions {
+
+	/**
+	 * The fraction of the board filled in a sparse position
+	 */
+	static final double SPARSE = 0.2;
+	/**
+	 * The fraction of the board filled in a dense position
+	 */
+	static final double DENSE = 0.7;
+
+	private BenchPositions() {
+	}
+
+	/**
+	 * Parses a board size written as <code>WIDTHxHEIGHT</code>
+	 * @return the width at index 0 and the height at index 1
+	 */
+	static int[] parseSize(String size) {
+		int x = size.indexOf('x');
+		return new int[] {Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+	}
+
+	/**
+	 * Returns the fraction of the board to fill for <code>sparse</code> or <code>dense</code>
+	 */
+	static double parseFill(String fill) {
+		if (fill.equals("sparse"))
+			return SPARSE;
+		if (fill.equals("dense"))
+			return DENSE;
+		throw new IllegalArgumentException("Unknown fill: " + fill);
+	}
+
+	/**
+	 * Returns the columns of a random game on a board of the given size that fills about the
+	 * given fraction of the board without anyone winning
+	 */
+	static int[] randomMoves(int width, int height, double fill, long seed) {
+		Random rand = new Random(seed);
+		Connect4ModelImpl model = new Connect4ModelImpl(height, width);
+		int[] moves = new int[(int) (width * height * fill)];
+		int count = 0;
+		int mark = Connect4Model.PLAYER1_MARK;
+		int tries = 0;
+		while (count < moves.length && tries++ < 100 * moves.length) {
+			List<Integer> available = model.getAvailableMoves();
+			int col = available.get(rand.nextInt(available.size()));
+			Connect4ModelImpl copy = new Connect4ModelImpl(model);
+			if (copy.isWin(col, copy.addPiece(col, mark)))
+				continue;
+			model.addPiece(col, mark);
+			moves[count++] = col;
+			mark = 3 - mark;
+		}
+		int[] played = new int[count];
+		System.arraycopy(moves, 0, played, 0, count);
+		return played;
+	}
+
+	/**
+	 * Plays the given columns on the given model, starting with player 1
+	 */
+	static void play(Connect4ModelImpl model, int[] moves) {
+		for (int i = 0; i < moves.length; i++) {
+			model.addPiece(moves[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package waldonsm.connect4.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every JMH benchmark in this package with the GC profiler, so allocation per
+ * operation is reported next to the time, and writes the results as JSON.
+ * <P>
+ * Any arguments are passed on to JMH, so for example
+ * <code>BenchmarkMain -p size=7x6 ModelBenchmark</code> runs one benchmark on one board
+ * size.  The results go to <code>jmh-result.json</code> unless <code>-rff</code> is given.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		ChainedOptionsBuilder builder = new OptionsBuilder()
+				.parent(cmd)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON);
+		if (cmd.getIncludes().isEmpty()) {
+			builder.include("waldonsm\\.connect4\\.bench\\..*Benchmark");
+		}
+		new Runner(builder.build()).run();
+	}
+}
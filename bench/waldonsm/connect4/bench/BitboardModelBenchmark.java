@@ -0,0 +1,107 @@
+package waldonsm.connect4.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import waldonsm.connect4.model.BitboardConnect4Model;
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * JMH benchmarks for BitboardConnect4Model, to compare against ModelBenchmark.  Only board
+ * sizes that fit in a bitboard are included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BitboardModelBenchmark {
+
+	@Param({"7x6", "8x7"})
+	public String size;
+
+	@Param({"sparse", "dense"})
+	public String fill;
+
+	private BitboardConnect4Model model;
+	private int[] occupiedCols;
+	private int[] occupiedRows;
+	private int next;
+	private int nextCol;
+	private int[] moves;
+
+	@Setup
+	public void setUp() {
+		int[] dims = BenchPositions.parseSize(size);
+		int[] moves = BenchPositions.randomMoves(dims[0], dims[1], BenchPositions.parseFill(fill), 42);
+		model = new BitboardConnect4Model(dims[1], dims[0]);
+		this.moves = new int[dims[0]];
+		occupiedCols = new int[moves.length];
+		occupiedRows = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			occupiedCols[i] = moves[i];
+			occupiedRows[i] = model.addPiece(moves[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+		}
+	}
+
+	/**
+	 * Adds a piece to the next column with room and takes it back again
+	 */
+	@Benchmark
+	public int addPieceAndUndo() {
+		int width = model.getWidth();
+		for (int i = 0; i < width; i++) {
+			int col = nextCol;
+			nextCol = (nextCol + 1) % width;
+			if (model.canAddPiece(col)) {
+				int row = model.addPiece(col, Connect4Model.PLAYER1_MARK);
+				model.undo();
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks for a win through each occupied cell in turn
+	 */
+	@Benchmark
+	public boolean isWin() {
+		int i = next;
+		next = (i + 1) % occupiedCols.length;
+		return model.isWin(occupiedCols[i], occupiedRows[i]);
+	}
+
+	@Benchmark
+	public long getThreats() {
+		return model.getThreats(Connect4Model.PLAYER1_MARK);
+	}
+
+	@Benchmark
+	public int[][] getArray() {
+		return model.getArray();
+	}
+
+	@Benchmark
+	public List<Integer> getAvailableMoves() {
+		return model.getAvailableMoves();
+	}
+
+	@Benchmark
+	public int getAvailableMovesIntoArray() {
+		return model.getAvailableMoves(moves);
+	}
+}
@@ -0,0 +1,121 @@
+package waldonsm.connect4.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import waldonsm.connect4.ai.LineEvaluator;
+import waldonsm.connect4.ai.LineWeights;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4Models;
+import waldonsm.connect4.model.MutableConnect4Model;
+import waldonsm.connect4.model.WinningLines;
+
+/**
+ * JMH benchmarks for static evaluation: the incremental LineEvaluator, the threat count the
+ * search uses by default, and, for comparison, scoring every line by rescanning the board.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EvaluationBenchmark {
+
+	@Param({"7x6", "20x20"})
+	public String size;
+
+	@Param({"sparse", "dense"})
+	public String fill;
+
+	private MutableConnect4Model model;
+	private WinningLines lines;
+	private LineWeights weights;
+	private LineEvaluator evaluator;
+	private int nextCol;
+
+	@Setup
+	public void setUp() {
+		int[] dims = BenchPositions.parseSize(size);
+		int[] moves = BenchPositions.randomMoves(dims[0], dims[1], BenchPositions.parseFill(fill), 42);
+		model = Connect4Models.newSearchModel(dims[1], dims[0], Connect4Model.DEFAULT_WIN_LENGTH);
+		lines = new WinningLines(dims[1], dims[0], Connect4Model.DEFAULT_WIN_LENGTH);
+		weights = LineWeights.standard(Connect4Model.DEFAULT_WIN_LENGTH);
+		evaluator = new LineEvaluator(lines, weights);
+		for (int i = 0; i < moves.length; i++) {
+			model.addPiece(moves[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+		}
+		evaluator.load(model);
+	}
+
+	@Benchmark
+	public int lineEvaluate() {
+		return evaluator.evaluate(Connect4Model.PLAYER1_MARK);
+	}
+
+	/**
+	 * Adds a piece to the next column with room and takes it back again, as the search does
+	 * for every node
+	 */
+	@Benchmark
+	public int lineAddAndRemove() {
+		int width = model.getWidth();
+		for (int i = 0; i < width; i++) {
+			int col = nextCol;
+			nextCol = (nextCol + 1) % width;
+			int row = model.getColumnHeight(col);
+			if (row < model.getHeight()) {
+				evaluator.add(col, row, Connect4Model.PLAYER1_MARK);
+				evaluator.remove(col, row, Connect4Model.PLAYER1_MARK);
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	@Benchmark
+	public int threatEvaluate() {
+		return model.getThreatCount(Connect4Model.PLAYER1_MARK) - model.getThreatCount(Connect4Model.PLAYER2_MARK);
+	}
+
+	/**
+	 * Scores every line from scratch, which is what the incremental evaluator saves
+	 */
+	@Benchmark
+	public int rescan() {
+		int length = lines.getLength();
+		int[] lineCells = lines.getLineCells();
+		int height = lines.getHeight();
+		int score = 0;
+		for (int line = 0; line < lines.getLineCount(); line++) {
+			int mine = 0;
+			int theirs = 0;
+			for (int k = line * length; k < line * length + length; k++) {
+				int cell = lineCells[k];
+				int mark = model.getValueAt(cell % height, cell / height);
+				if (mark == Connect4Model.PLAYER1_MARK) {
+					mine++;
+				} else if (mark == Connect4Model.PLAYER2_MARK) {
+					theirs++;
+				}
+			}
+			if (theirs == 0) {
+				score += weights.getWeight(mine);
+			} else if (mine == 0) {
+				score -= weights.getWeight(theirs);
+			}
+		}
+		return score;
+	}
+}
@@ -0,0 +1,100 @@
+package waldonsm.connect4.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4Models;
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * JMH benchmarks for the search models on boards of different sizes and win lengths.  The
+ * 7x6 board gets a BitboardConnect4Model and the bigger ones a
+ * MultiWordBitboardConnect4Model, so the cost of each operation can be compared as the board
+ * grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LargeBoardBenchmark {
+
+	@Param({"7x6", "20x20", "40x40"})
+	public String size;
+
+	@Param({"4", "5", "6"})
+	public int winLength;
+
+	@Param({"sparse", "dense"})
+	public String fill;
+
+	private MutableConnect4Model model;
+	private int[] occupiedCols;
+	private int[] occupiedRows;
+	private int next;
+	private int nextCol;
+
+	@Setup
+	public void setUp() {
+		int[] dims = BenchPositions.parseSize(size);
+		int[] moves = BenchPositions.randomMoves(dims[0], dims[1], BenchPositions.parseFill(fill), 42);
+		model = Connect4Models.newSearchModel(dims[1], dims[0], winLength);
+		occupiedCols = new int[moves.length];
+		occupiedRows = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			occupiedCols[i] = moves[i];
+			occupiedRows[i] = model.addPiece(moves[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+		}
+	}
+
+	/**
+	 * Adds a piece to the next column with room and takes it back again
+	 */
+	@Benchmark
+	public int addPieceAndUndo() {
+		int width = model.getWidth();
+		for (int i = 0; i < width; i++) {
+			int col = nextCol;
+			nextCol = (nextCol + 1) % width;
+			if (model.canAddPiece(col)) {
+				int row = model.addPiece(col, Connect4Model.PLAYER1_MARK);
+				model.undo();
+				return row;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks for a win through each occupied cell in turn
+	 */
+	@Benchmark
+	public boolean isWin() {
+		int i = next;
+		next = (i + 1) % occupiedCols.length;
+		return model.isWin(occupiedCols[i], occupiedRows[i]);
+	}
+
+	@Benchmark
+	public boolean hasWinningMove() {
+		return model.hasWinningMove(Connect4Model.PLAYER1_MARK);
+	}
+
+	@Benchmark
+	public int getThreatCount() {
+		return model.getThreatCount(Connect4Model.PLAYER1_MARK);
+	}
+}
@@ -0,0 +1,125 @@
+package waldonsm.connect4.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * JMH benchmarks for the methods of Connect4ModelImpl that an AI calls most, on sparse and
+ * dense positions of several board sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ModelBenchmark {
+
+	@Param({"7x6", "12x8", "20x20"})
+	public String size;
+
+	@Param({"sparse", "dense"})
+	public String fill;
+
+	private Connect4ModelImpl model;
+	/**
+	 * A board that addPiece fills up and clears over and over
+	 */
+	private Connect4ModelImpl scratch;
+	private int[] occupiedCols;
+	private int[] occupiedRows;
+	private int next;
+	private int nextCol;
+	private int[] moves;
+
+	@Setup
+	public void setUp() {
+		int[] dims = BenchPositions.parseSize(size);
+		int[] moves = BenchPositions.randomMoves(dims[0], dims[1], BenchPositions.parseFill(fill), 42);
+		model = new Connect4ModelImpl(dims[1], dims[0]);
+		scratch = new Connect4ModelImpl(dims[1], dims[0]);
+		this.moves = new int[dims[0]];
+		occupiedCols = new int[moves.length];
+		occupiedRows = new int[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			occupiedCols[i] = moves[i];
+			occupiedRows[i] = model.addPiece(moves[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+		}
+	}
+
+	/**
+	 * Adds one piece to a scratch board, clearing the board once every time it fills up
+	 */
+	@Benchmark
+	public int addPiece() {
+		int width = scratch.getWidth();
+		for (int i = 0; i < width; i++) {
+			int col = nextCol;
+			nextCol = (nextCol + 1) % width;
+			if (scratch.canAddPiece(col))
+				return scratch.addPiece(col, Connect4Model.PLAYER1_MARK);
+		}
+		scratch.clear();
+		return -1;
+	}
+
+	/**
+	 * Checks for a win through each occupied cell in turn
+	 */
+	@Benchmark
+	public boolean isWin() {
+		int i = next;
+		next = (i + 1) % occupiedCols.length;
+		return model.isWin(occupiedCols[i], occupiedRows[i]);
+	}
+
+	/**
+	 * Plays a move on the position and takes it back, as a search does at every node
+	 */
+	@Benchmark
+	public int addPieceAndUndo() {
+		int col = nextCol;
+		nextCol = (nextCol + 1) % model.getWidth();
+		if (model.addPiece(col, Connect4Model.PLAYER1_MARK) < 0)
+			return -1;
+		return model.undo();
+	}
+
+	/**
+	 * Copies the position, which is what trying a move cost before there was undo()
+	 */
+	@Benchmark
+	public Connect4ModelImpl copy() {
+		return new Connect4ModelImpl(model);
+	}
+
+	@Benchmark
+	public int[][] getArray() {
+		return model.getArray();
+	}
+
+	@Benchmark
+	public List<Integer> getAvailableMoves() {
+		return model.getAvailableMoves();
+	}
+
+	@Benchmark
+	public int getAvailableMovesIntoArray() {
+		return model.getAvailableMoves(moves);
+	}
+}
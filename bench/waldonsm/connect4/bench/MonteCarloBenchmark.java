@@ -0,0 +1,79 @@
+package waldonsm.connect4.bench;
+
+import java.util.concurrent.ForkJoinPool;
+
+import waldonsm.connect4.ai.MonteCarloAI;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * Measures how the parallel MonteCarloAI scales with the number of threads.  For each thread
+ * count it thinks about a few positions on a large board for a fixed time, and prints the
+ * number of games played out per second in total and per thread.
+ * <P>
+ * Usage: <code>MonteCarloBenchmark [millis [width height [thread counts...]]]</code>, for
+ * example <code>MonteCarloBenchmark 2000 12 8 1 2 4 8</code>.
+ */
+public class MonteCarloBenchmark {
+
+	/**
+	 * The positions searched, as the columns played from an empty board
+	 */
+	private static final int[][] POSITIONS = {
+		{},
+		{5, 6},
+		{5, 6, 6, 5, 4, 7},
+	};
+
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		int width = args.length > 2 ? Integer.parseInt(args[1]) : 12;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int[] threadCounts = {1, 2, 4, 8, 16};
+		if (args.length > 3) {
+			threadCounts = new int[args.length - 3];
+			for (int i = 3; i < args.length; i++) {
+				threadCounts[i - 3] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%dx%d, %d ms a move, %d cores available%n", width, height, millis, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %14s %18s %10s%n", "threads", "playouts/sec", "per thread", "speedup");
+		double basePerSecond = 0;
+		for (int threads : threadCounts) {
+			ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads - 1));
+			try {
+				// warm up the JIT before timing anything
+				run(new MonteCarloAI(millis, 64, threads, pool), width, height, millis / 4);
+				MonteCarloAI ai = new MonteCarloAI(millis, 64, threads, pool);
+				long[] totals = run(ai, width, height, millis);
+				double perSecond = totals[1] * 1e9 / totals[0];
+				if (basePerSecond == 0) {
+					basePerSecond = perSecond;
+				}
+				System.out.printf("%8d %14.0f %18.0f %10.2f%n", threads, perSecond, perSecond / threads, perSecond / basePerSecond);
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Thinks about every position for the given time with a fresh game each time
+	 * @return the total time in nanoseconds at index 0, and the total playouts at index 1
+	 */
+	private static long[] run(MonteCarloAI ai, int width, int height, long millis) {
+		long[] totals = new long[2];
+		for (int[] moves : POSITIONS) {
+			Connect4ModelImpl model = new Connect4ModelImpl(height, width);
+			for (int i = 0; i < moves.length; i++) {
+				model.addPiece(moves[i] % width, i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+			}
+			ai.newGame();
+			ai.chooseColumn(model, millis);
+			totals[0] += ai.getLastNanos();
+			totals[1] += ai.getLastPlayouts();
+		}
+		return totals;
+	}
+}
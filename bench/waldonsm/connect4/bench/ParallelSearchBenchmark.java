@@ -0,0 +1,86 @@
+package waldonsm.connect4.bench;
+
+import java.util.concurrent.ForkJoinPool;
+
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * Measures how the parallel NegamaxAI scales with the number of threads.  For each thread
+ * count it searches a handful of standard 7x6 positions to a fixed depth, and prints the
+ * time it took to reach that depth and the number of positions searched per second.
+ * <P>
+ * Usage: <code>ParallelSearchBenchmark [depth] [thread counts...]</code>, for example
+ * <code>ParallelSearchBenchmark 16 1 2 4 8 16</code>.
+ */
+public class ParallelSearchBenchmark {
+
+	/**
+	 * The positions searched, as the columns played from an empty board
+	 */
+	private static final int[][] POSITIONS = {
+		{},
+		{3, 3},
+		{3, 2, 4, 4},
+		{3, 3, 3, 3, 2, 4},
+		{2, 3, 4, 3, 3, 2, 4, 5},
+	};
+
+	/**
+	 * A time budget long enough that the depth limit is always reached first
+	 */
+	private static final long NO_TIME_LIMIT = 24L * 60 * 60 * 1000;
+
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 14;
+		int[] threadCounts = {1, 2, 4, 8, 16};
+		if (args.length > 1) {
+			threadCounts = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				threadCounts[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("depth %d, %d cores available%n", depth, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %14s %14s %10s%n", "threads", "ms to depth", "nodes/sec", "speedup");
+		double baseMillis = 0;
+		for (int threads : threadCounts) {
+			ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads - 1));
+			try {
+				// warm up the JIT before timing anything
+				run(new NegamaxAI(NO_TIME_LIMIT, 64, threads, pool), depth - 2);
+				NegamaxAI ai = new NegamaxAI(NO_TIME_LIMIT, 64, threads, pool);
+				long[] totals = run(ai, depth);
+				double millis = totals[0] / 1e6;
+				double nodesPerSecond = totals[1] * 1e9 / totals[0];
+				if (baseMillis == 0) {
+					baseMillis = millis;
+				}
+				System.out.printf("%8d %14.1f %14.0f %10.2f%n", threads, millis, nodesPerSecond, baseMillis / millis);
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Searches every position to the given depth with a fresh game each time
+	 * @return the total time in nanoseconds at index 0, and the total nodes at index 1
+	 */
+	private static long[] run(NegamaxAI ai, int depth) {
+		long[] totals = new long[2];
+		for (int[] moves : POSITIONS) {
+			Connect4ModelImpl model = new Connect4ModelImpl(6, 7);
+			for (int i = 0; i < moves.length; i++) {
+				model.addPiece(moves[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+			}
+			ai.newGame();
+			ai.getTranspositionTable().clear();
+			ai.chooseColumn(model, NO_TIME_LIMIT, depth);
+			totals[0] += ai.getLastNanos();
+			totals[1] += ai.getLastNodes();
+		}
+		return totals;
+	}
+}
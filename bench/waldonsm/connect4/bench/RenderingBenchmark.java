@@ -0,0 +1,108 @@
+package waldonsm.connect4.bench;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import waldonsm.connect4.gui.Connect4Panel;
+import waldonsm.connect4.gui.PieceSprites;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * JMH benchmarks for drawing every piece of a board, the worst case for one frame: filling
+ * an oval for each piece as the panel used to, filling anti-aliased ovals, and copying the
+ * cached anti-aliased sprites.  Pieces are drawn into an opaque RGB image, the usual format
+ * of the screen, so no screen is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderingBenchmark {
+
+	@Param({"7x6", "20x20"})
+	public String size;
+
+	@Param({"sparse", "dense"})
+	public String fill;
+
+	private BufferedImage frame;
+	private Graphics2D g;
+	private int[] xs;
+	private int[] ys;
+	private Color[] colors;
+
+	@Setup
+	public void setUp() {
+		int[] dims = BenchPositions.parseSize(size);
+		int[] moves = BenchPositions.randomMoves(dims[0], dims[1], BenchPositions.parseFill(fill), 42);
+		Connect4ModelImpl model = new Connect4ModelImpl(dims[1], dims[0]);
+		xs = new int[moves.length];
+		ys = new int[moves.length];
+		colors = new Color[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			int mark = i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK;
+			int row = model.addPiece(moves[i], mark);
+			xs[i] = moves[i] * 50 + 5;
+			ys[i] = (dims[1] - row - 1) * 50 + 60;
+			colors[i] = mark == Connect4Model.PLAYER1_MARK ? Connect4Panel.PLAYER1_COLOR : Connect4Panel.PLAYER2_COLOR;
+		}
+		frame = new BufferedImage(dims[0] * 50, dims[1] * 50 + 60, BufferedImage.TYPE_INT_RGB);
+		g = frame.createGraphics();
+	}
+
+	/**
+	 * Fills an oval for every piece, without anti-aliasing
+	 */
+	@Benchmark
+	public BufferedImage fillOval() {
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		for (int i = 0; i < xs.length; i++) {
+			g.setColor(colors[i]);
+			g.fillOval(xs[i], ys[i], Connect4Panel.PIECE_SIZE, Connect4Panel.PIECE_SIZE);
+		}
+		return frame;
+	}
+
+	/**
+	 * Fills an anti-aliased oval for every piece, which is what the sprites look like
+	 */
+	@Benchmark
+	public BufferedImage fillOvalAntialiased() {
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		for (int i = 0; i < xs.length; i++) {
+			g.setColor(colors[i]);
+			g.fillOval(xs[i], ys[i], Connect4Panel.PIECE_SIZE, Connect4Panel.PIECE_SIZE);
+		}
+		return frame;
+	}
+
+	/**
+	 * Copies the cached sprite for every piece
+	 */
+	@Benchmark
+	public BufferedImage sprites() {
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		for (int i = 0; i < xs.length; i++) {
+			PieceSprites.drawPiece(g, colors[i], xs[i], ys[i]);
+		}
+		return frame;
+	}
+}
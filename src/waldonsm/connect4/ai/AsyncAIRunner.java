@@ -0,0 +1,160 @@
+package waldonsm.connect4.ai;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import waldonsm.connect4.metrics.LatencyHistogram;
+import waldonsm.connect4.metrics.Metrics;
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * Runs a Connect4AI on its own thread, so that the caller (usually the Swing event thread)
+ * never waits for it to think.
+ * <P>
+ * All calls to the AI are made from one dedicated thread, one at a time, so the AI itself
+ * does not need to be thread safe.  The AI is given a snapshot of the board, so the caller
+ * is free to change its model while the AI is thinking.
+ * <P>
+ * A PonderingAI can also be set thinking on the opponent's time with ponderAsync().  It is
+ * interrupted as soon as a move is asked for, or the runner is cancelled or told about a new
+ * game.
+ */
+public class AsyncAIRunner {
+
+	private static final LatencyHistogram THINK_TIME = Metrics.histogram("ai.think");
+	private static final LongAdder MOVES = Metrics.counter("ai.moves");
+
+	private final Connect4AI ai;
+	private final ExecutorService executor;
+	private CompletableFuture<Integer> running;
+	private Future<?> pondering;
+
+	/**
+	 * Creates a new runner, with its own thread, for the given AI
+	 * @param ai the AI to run
+	 */
+	public AsyncAIRunner(Connect4AI ai) {
+		this.ai = ai;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Connect4 AI");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts the AI choosing a move for the given board, and returns right away.
+	 * <P>
+	 * The returned future is completed with the column chosen, or exceptionally with anything
+	 * the AI throws.  If the move is cancelled, either through the future or with cancel(),
+	 * the AI's thread is interrupted and the future is never completed normally.
+	 * @param model the Connect4Model with the current board
+	 * @return a future for the column the AI chooses
+	 */
+	public synchronized CompletableFuture<Integer> chooseColumnAsync(Connect4Model model) {
+		stopPondering();
+		final Connect4Model copy = model.getSnapshot();
+		final CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+		final Future<?> task = executor.submit(new Runnable() {
+			public void run() {
+				try {
+					long start = System.nanoTime();
+					int col = ai.chooseColumn(copy);
+					if (Metrics.ENABLED) {
+						THINK_TIME.recordSince(start);
+						MOVES.increment();
+					}
+					if (!Thread.currentThread().isInterrupted()) {
+						result.complete(col);
+					}
+				} catch (Throwable ex) {
+					// even an Error, such as running out of stack in a deep search, must not
+					// leave the caller waiting for a move forever
+					result.completeExceptionally(ex);
+				}
+			}
+		});
+		running = result;
+		// cancelling the future should also stop the AI from thinking
+		result.whenComplete(new BiConsumer<Integer, Throwable>() {
+			public void accept(Integer col, Throwable t) {
+				if (result.isCancelled()) {
+					task.cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Starts the AI thinking about the given board while the opponent decides on their move,
+	 * and returns right away.  Does nothing unless the AI is a PonderingAI.
+	 * @param model the Connect4Model with the current board, with the opponent to move
+	 */
+	public synchronized void ponderAsync(Connect4Model model) {
+		stopPondering();
+		if (!(ai instanceof PonderingAI))
+			return;
+		final PonderingAI ponderer = (PonderingAI) ai;
+		final Connect4Model copy = model.getSnapshot();
+		pondering = executor.submit(new Runnable() {
+			public void run() {
+				ponderer.ponder(copy);
+			}
+		});
+	}
+
+	private void stopPondering() {
+		if (pondering != null) {
+			pondering.cancel(true);
+			pondering = null;
+		}
+	}
+
+	/**
+	 * Stops the AI from thinking about the move it is working on, if any, and from
+	 * pondering
+	 */
+	public synchronized void cancel() {
+		stopPondering();
+		if (running != null) {
+			running.cancel(false);
+			running = null;
+		}
+	}
+
+	/**
+	 * Cancels the move being worked on, then tells the AI that a new game has been started
+	 */
+	public synchronized void newGame() {
+		cancel();
+		executor.execute(new Runnable() {
+			public void run() {
+				ai.newGame();
+			}
+		});
+	}
+
+	/**
+	 * Cancels the move being worked on and stops the AI's thread
+	 */
+	public synchronized void shutdown() {
+		cancel();
+		executor.shutdown();
+	}
+
+	/**
+	 * Returns the AI being run
+	 * @return the AI being run
+	 */
+	public Connect4AI getAI() {
+		return ai;
+	}
+}
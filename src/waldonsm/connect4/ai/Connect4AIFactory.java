@@ -0,0 +1,14 @@
+package waldonsm.connect4.ai;
+
+/**
+ * Creates new Connect4AIs.  Used wherever several games run at once, since an AI keeps
+ * state between moves and so can only play one game at a time.
+ */
+public interface Connect4AIFactory {
+
+	/**
+	 * Creates a new AI, ready to play a new game
+	 * @return the new AI
+	 */
+	Connect4AI createAI();
+}
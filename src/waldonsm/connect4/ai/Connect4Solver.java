@@ -0,0 +1,433 @@
+package waldonsm.connect4.ai;
+
+import waldonsm.connect4.model.BitboardConnect4Model;
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * Works out the exact game-theoretic value of a position: whether the player to move wins,
+ * loses or draws with perfect play, and how quickly.
+ * <P>
+ * The score of a position is from the point of view of the player to move.  A win where the
+ * winning piece is the <code>n</code>th piece on the board scores
+ * <code>(cells + 2 - n) / 2</code>, so quicker wins score higher; a loss scores minus that,
+ * and a draw scores 0.  getPliesToEnd() turns a score back into a number of moves.
+ * <P>
+ * The search is negamax with alpha-beta pruning, run as a series of null-window searches that
+ * narrow down the score (in the style of MTD(f)).  Positions are bitboards, the moves that
+ * lose at once are never searched, the rest are tried in order of how many new threats they
+ * make, and results are cached in a transposition table as upper and lower bounds.  A
+ * position and its mirror image share one table entry.
+ * <P>
+ * Only standard connect 4 (a win length of 4) on boards that fit in a BitboardConnect4Model
+ * can be solved.  A 7x6 position with 24 or fewer empty cells takes well under a second; the
+ * time roughly doubles with every two more empty cells, so analyze() can be given a deadline
+ * to give up at.  This class is not thread safe.
+ */
+public final class Connect4Solver {
+
+	/**
+	 * The clock is only read once every this many nodes (must be a power of 2 minus 1)
+	 */
+	private static final int CHECK_INTERVAL = 1023;
+
+	private final int width;
+	private final int height;
+	private final int cells;
+	private final int stride;
+	private final long bottomMask;
+	private final long boardMask;
+	/**
+	 * The columns in the order they are tried: center first, then working outwards
+	 */
+	private final int[] order;
+
+	/**
+	 * The table: keys, and scores packed as <code>(score - minScore + 1) * 2 + lower</code>,
+	 * where <code>lower</code> is 1 for a lower bound and 0 for an upper bound.  0 is empty.
+	 */
+	private final long[] keys;
+	private final byte[] values;
+	private final int tableShift;
+	private final int minScore;
+
+	/**
+	 * Move lists for the sort at each depth, so searching allocates nothing
+	 */
+	private final long[][] sortMoves;
+	private final int[][] sortScores;
+
+	private long nodes;
+	private boolean timed;
+	private long deadline;
+	private boolean aborted;
+
+	/**
+	 * Creates a new solver for boards of the given size
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param tableMegabytes the most memory the transposition table may use, in megabytes
+	 * @throws IllegalArgumentException if the board does not fit in a bitboard
+	 */
+	public Connect4Solver(int height, int width, int tableMegabytes) {
+		if (!BitboardConnect4Model.fits(height, width))
+			throw new IllegalArgumentException("A " + width + "x" + height + " board does not fit in a bitboard");
+		this.width = width;
+		this.height = height;
+		cells = width * height;
+		stride = height + 1;
+		long bottom = 0;
+		for (int i = 0; i < width; i++) {
+			bottom |= 1L << (i * stride);
+		}
+		bottomMask = bottom;
+		boardMask = bottom * ((1L << height) - 1);
+		order = NegamaxSearch.centerFirstOrder(width);
+		minScore = -cells / 2;
+
+		long entries = Math.max(1L << 10, ((long) tableMegabytes << 20) / 9);
+		int bits = 63 - Long.numberOfLeadingZeros(entries);
+		bits = Math.min(bits, 30);
+		keys = new long[1 << bits];
+		values = new byte[1 << bits];
+		tableShift = 64 - bits;
+		sortMoves = new long[cells + 1][width];
+		sortScores = new int[cells + 1][width];
+	}
+
+	/**
+	 * Returns true if positions from the given model can be solved by some solver
+	 * @param model the model
+	 * @return true if the board fits in a bitboard and the game is standard connect 4
+	 */
+	public static boolean fits(Connect4Model model) {
+		return BitboardConnect4Model.fits(model.getHeight(), model.getWidth())
+				&& model.getWinLength() == Connect4Model.DEFAULT_WIN_LENGTH;
+	}
+
+	/**
+	 * Returns true if this solver can solve positions from the given model
+	 * @param model the model
+	 * @return true if the model is the size of the solver's board and is standard connect 4
+	 */
+	public boolean canSolve(Connect4Model model) {
+		return model.getWidth() == width && model.getHeight() == height
+				&& model.getWinLength() == Connect4Model.DEFAULT_WIN_LENGTH;
+	}
+
+	/**
+	 * Solves the given position, which must not already be won
+	 * @param model the position
+	 * @return the score of the position for the player to move
+	 */
+	public int solve(Connect4Model model) {
+		timed = false;
+		aborted = false;
+		long[] position = load(model);
+		return solve(position[0], position[1], (int) position[2]);
+	}
+
+	/**
+	 * Solves every move of the given position, which must not already be won
+	 * @param model the position
+	 * @return the score of each column for the player making the move, or
+	 * <code>Integer.MIN_VALUE</code> for full columns
+	 */
+	public int[] analyze(Connect4Model model) {
+		timed = false;
+		return analyzeMoves(model);
+	}
+
+	/**
+	 * Solves every move of the given position, which must not already be won, unless the
+	 * deadline passes or the thread is interrupted first.  Whatever was learnt before giving
+	 * up is kept in the table, so trying again later is quicker.
+	 * @param model the position
+	 * @param deadline when to give up, in System.nanoTime() units
+	 * @return the score of each column for the player making the move, or
+	 * <code>Integer.MIN_VALUE</code> for full columns, or null if the solver gave up
+	 */
+	public int[] analyze(Connect4Model model, long deadline) {
+		timed = true;
+		this.deadline = deadline;
+		return analyzeMoves(model);
+	}
+
+	private int[] analyzeMoves(Connect4Model model) {
+		aborted = false;
+		long[] position = load(model);
+		long current = position[0];
+		long mask = position[1];
+		int moves = (int) position[2];
+		int[] scores = new int[width];
+		for (int col = 0; col < width; col++) {
+			long move = (mask + (1L << (col * stride))) & columnMask(col);
+			if (move == 0) {
+				scores[col] = Integer.MIN_VALUE;
+			} else if ((winningCells(current, mask) & move) != 0) {
+				scores[col] = (cells + 1 - moves) / 2;
+			} else {
+				scores[col] = -solve(current ^ mask, mask | move, moves + 1);
+				if (aborted)
+					return null;
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Returns the best move in the given position: the quickest win, or failing that a draw,
+	 * or failing that the slowest loss.  Ties go to the column nearest the center.
+	 * @param model the position, which must not already be won
+	 * @return the best column to play
+	 */
+	public int getBestMove(Connect4Model model) {
+		return getBestMove(analyze(model));
+	}
+
+	/**
+	 * Returns the best move given the scores of every column, as returned by analyze()
+	 * @param scores the score of each column
+	 * @return the best column to play
+	 */
+	public int getBestMove(int[] scores) {
+		int best = -1;
+		for (int i = 0; i < order.length; i++) {
+			int col = order[i];
+			if (scores[col] != Integer.MIN_VALUE && (best == -1 || scores[col] > scores[best])) {
+				best = col;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Turns a score into the number of moves, counting both players', until the game ends
+	 * with perfect play.  For a score from analyze(), this counts the move being scored.
+	 * @param score the score of a position, for the player to move
+	 * @param moveCount the number of pieces already on the board
+	 * @return the number of moves left in the game
+	 */
+	public int getPliesToEnd(int score, int moveCount) {
+		if (score == 0)
+			return cells - moveCount;
+		// the winning piece is the nth on the board, and the winner moves on odd plies from
+		// here if it's the player to move, or on even plies if not
+		int n = cells + 2 - 2 * Math.abs(score);
+		boolean winnerToMove = score > 0;
+		if (((n - moveCount) % 2 == 1) != winnerToMove) {
+			n--;
+		}
+		return n - moveCount;
+	}
+
+	/**
+	 * Returns the number of positions searched since the solver was made
+	 * @return the number of positions searched
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Empties the transposition table
+	 */
+	public void clear() {
+		java.util.Arrays.fill(keys, 0);
+		java.util.Arrays.fill(values, (byte) 0);
+	}
+
+	/**
+	 * Returns the pieces of the player to move, all the pieces, and the number of pieces
+	 */
+	private long[] load(Connect4Model model) {
+		if (!canSolve(model))
+			throw new IllegalArgumentException("Can't solve this board");
+		long p1 = 0;
+		long mask = 0;
+		int count = 0;
+		for (int col = 0; col < width; col++) {
+			for (int row = 0; row < height; row++) {
+				int mark = model.getValueAt(row, col);
+				if (mark == Connect4Model.EMPTY_MARK)
+					break;
+				long bit = 1L << (col * stride + row);
+				mask |= bit;
+				if (mark == Connect4Model.PLAYER1_MARK) {
+					p1 |= bit;
+				}
+				count++;
+			}
+		}
+		int p1Count = Long.bitCount(p1);
+		// player 2 is to move if player 1 has more pieces
+		long current = p1Count > count - p1Count ? mask ^ p1 : p1;
+		return new long[] {current, mask, count};
+	}
+
+	/**
+	 * Finds the exact score with null-window searches, halving the range of possible scores
+	 * each time
+	 */
+	private int solve(long current, long mask, int moves) {
+		if (canWinNext(current, mask))
+			return (cells + 1 - moves) / 2;
+		int min = -(cells - moves) / 2;
+		int max = (cells + 1 - moves) / 2;
+		while (min < max) {
+			int med = min + (max - min) / 2;
+			// aim closer to 0 first: searches for small scores are much cheaper
+			if (med <= 0 && min / 2 < med) {
+				med = min / 2;
+			} else if (med >= 0 && max / 2 > med) {
+				med = max / 2;
+			}
+			int r = negamax(current, mask, moves, med, med + 1);
+			if (aborted)
+				return 0;
+			if (r <= med) {
+				max = r;
+			} else {
+				min = r;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * The recursive search.  The player to move must not be able to win at once.
+	 */
+	private int negamax(long current, long mask, int moves, int alpha, int beta) {
+		nodes++;
+		if (timed && (nodes & CHECK_INTERVAL) == 0
+				&& (System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted())) {
+			aborted = true;
+			return 0;
+		}
+		long next = nonLosingMoves(current, mask);
+		if (next == 0)
+			return -(cells - moves) / 2;
+		if (moves >= cells - 2)
+			return 0;
+
+		// the opponent can't win on their next move, so the earliest loss is two moves later
+		int min = -(cells - 2 - moves) / 2;
+		if (alpha < min) {
+			alpha = min;
+			if (alpha >= beta)
+				return alpha;
+		}
+		// we can't win on this move, so the earliest win is two moves later
+		int max = (cells - 1 - moves) / 2;
+
+		long key = canonicalKey(current + mask);
+		int index = (int) ((key * 0x9E3779B97F4A7C15L) >>> tableShift);
+		int value = values[index];
+		// an empty entry has value 0, and would otherwise match the empty board's key
+		if (keys[index] == key && value != 0) {
+			int score = (value >> 1) + minScore - 1;
+			if ((value & 1) != 0) {
+				if (alpha < score) {
+					alpha = score;
+					if (alpha >= beta)
+						return alpha;
+				}
+			} else if (max > score) {
+				max = score;
+			}
+		}
+		if (beta > max) {
+			beta = max;
+			if (alpha >= beta)
+				return beta;
+		}
+
+		long[] sorted = sortMoves[moves];
+		int[] scores = sortScores[moves];
+		int count = 0;
+		for (int i = order.length - 1; i >= 0; i--) {
+			long move = next & columnMask(order[i]);
+			if (move != 0) {
+				// insertion sort by the number of threats the move makes, keeping the
+				// center-first order among equals
+				int score = Long.bitCount(winningCells(current | move, mask));
+				int pos = count++;
+				while (pos > 0 && scores[pos - 1] > score) {
+					sorted[pos] = sorted[pos - 1];
+					scores[pos] = scores[pos - 1];
+					pos--;
+				}
+				sorted[pos] = move;
+				scores[pos] = score;
+			}
+		}
+		for (int i = count - 1; i >= 0; i--) {
+			int score = -negamax(current ^ mask, mask | sorted[i], moves + 1, -beta, -alpha);
+			// an unfinished search proves nothing, so it mustn't go in the table
+			if (aborted)
+				return 0;
+			if (score >= beta) {
+				store(index, key, score, true);
+				return score;
+			}
+			if (score > alpha) {
+				alpha = score;
+			}
+		}
+		store(index, key, alpha, false);
+		return alpha;
+	}
+
+	private void store(int index, long key, int score, boolean lower) {
+		keys[index] = key;
+		values[index] = (byte) (((score - minScore + 1) << 1) | (lower ? 1 : 0));
+	}
+
+	/**
+	 * Returns the smaller of a key and the key of its mirror image.  Each column of a key is
+	 * independent of the others, so mirroring it just reverses the order of its columns.
+	 */
+	private long canonicalKey(long key) {
+		long column = (1L << stride) - 1;
+		long mirror = 0;
+		for (int i = 0; i < width; i++) {
+			mirror |= ((key >>> (i * stride)) & column) << ((width - 1 - i) * stride);
+		}
+		return Math.min(key, mirror);
+	}
+
+	/**
+	 * Returns the empty cells that would complete four in a row for the given pieces
+	 */
+	private long winningCells(long pieces, long mask) {
+		return BitboardConnect4Model.fourInARowThreats(pieces, stride) & boardMask & ~mask;
+	}
+
+	private long playable(long mask) {
+		return (mask + bottomMask) & boardMask;
+	}
+
+	private boolean canWinNext(long current, long mask) {
+		return (winningCells(current, mask) & playable(mask)) != 0;
+	}
+
+	/**
+	 * Returns the moves that don't let the opponent win on their next move.  If the opponent
+	 * threatens to win in two places at once there are none.
+	 */
+	private long nonLosingMoves(long current, long mask) {
+		long possible = playable(mask);
+		long opponentWins = winningCells(current ^ mask, mask);
+		long forced = possible & opponentWins;
+		if (forced != 0) {
+			if ((forced & (forced - 1)) != 0)
+				return 0;
+			possible = forced;
+		}
+		// don't play right under a cell where the opponent would win
+		return possible & ~(opponentWins >>> 1);
+	}
+
+	private long columnMask(int col) {
+		return ((1L << height) - 1) << (col * stride);
+	}
+}
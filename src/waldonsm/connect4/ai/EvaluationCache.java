@@ -0,0 +1,261 @@
+package waldonsm.connect4.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import waldonsm.connect4.metrics.Metrics;
+
+/**
+ * A bounded cache of search results and static evaluations that any number of AIs, on any
+ * number of threads, can share.
+ * <P>
+ * Keys are made by key() from a canonical hash (see MutableConnect4Model.getCanonicalHash())
+ * and the size of the board, so that a position and its mirror image share one entry, and
+ * positions on different boards, whose hashes may be the same, never do.  Any column stored
+ * with a canonical key must be stored as it is on the canonical side of the board.
+ * <P>
+ * Entries are packed the same way as in a TranspositionTable, so they are read with its
+ * static score(), depth(), bound() and move() methods, and an entry of 0 means nothing was
+ * found.  Static evaluations are kept apart from search results, so one position can have
+ * both.  AIs that evaluate positions differently must also keep their evaluations apart, by
+ * mixing something that identifies the evaluation into the key.
+ * <P>
+ * The cache is split into sets of <code>WAYS</code> slots, and each key can only go in one
+ * set.  When a set is full the slot to replace is picked by the CLOCK algorithm, which
+ * approximates least recently used: every lookup that finds an entry marks it as used, and a
+ * hand sweeps round the set clearing the marks until it finds an entry that hasn't been used
+ * since the last sweep.  Each set is guarded by one of a fixed number of locks.
+ */
+public final class EvaluationCache {
+
+	/**
+	 * The number of slots in each set
+	 */
+	public static final int WAYS = 8;
+
+	/**
+	 * The number of bytes used by each slot, rounded up
+	 */
+	public static final int BYTES_PER_ENTRY = 18;
+
+	private static final int LOCKS = 256;
+
+	private static final LongAdder CACHE_HITS = Metrics.counter("cache.hits");
+	private static final LongAdder CACHE_MISSES = Metrics.counter("cache.misses");
+	private static final LongAdder CACHE_EVICTIONS = Metrics.counter("cache.evictions");
+
+	/**
+	 * Mixed into the keys of static evaluations so they don't collide with search results
+	 */
+	private static final long EVALUATION_SALT = 0x632BE59BD9B4E019L;
+
+	private final long[] keys;
+	private final long[] values;
+	private final boolean[] used;
+	private final byte[] hands;
+	private final int setMask;
+	private final Object[] locks = new Object[LOCKS];
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a new cache that uses at most the given number of megabytes.  The number of
+	 * sets is rounded down to a power of 2.
+	 * @param megabytes the most memory the cache may use, in megabytes
+	 */
+	public EvaluationCache(int megabytes) {
+		if (megabytes <= 0)
+			throw new IllegalArgumentException("The cache needs at least one megabyte");
+		long sets = Long.highestOneBit(megabytes * (1L << 20) / (BYTES_PER_ENTRY * WAYS));
+		// java arrays are indexed by int
+		sets = Math.min(sets, (1 << 30) / WAYS);
+		keys = new long[(int) sets * WAYS];
+		values = new long[(int) sets * WAYS];
+		used = new boolean[(int) sets * WAYS];
+		hands = new byte[(int) sets];
+		setMask = (int) sets - 1;
+		for (int i = 0; i < LOCKS; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Makes the key of a position from its canonical hash and the size of its board
+	 * @param hash the canonical hash of the position
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @return the key of the position
+	 */
+	public static long key(long hash, int height, int width, int winLength) {
+		long geometry = ((long) height << 32 | (long) width << 16 | winLength) * 0x9E3779B97F4A7C15L;
+		return hash ^ geometry ^ (geometry >>> 29);
+	}
+
+	/**
+	 * Looks up the result of a search of the given position
+	 * @param key the key of the position
+	 * @return the packed entry, or 0 if the position is not in the cache
+	 */
+	public long getSearchResult(long key) {
+		return get(key);
+	}
+
+	/**
+	 * Stores the result of a search, unless the cache already has a deeper search of the
+	 * same position
+	 * @param key the key of the position
+	 * @param depth the depth the position was searched to
+	 * @param bound one of TranspositionTable.EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param score the score of the position
+	 * @param move the best move found, on the canonical side of the board, or -1
+	 */
+	public void putSearchResult(long key, int depth, int bound, int score, int move) {
+		put(key, pack(depth, bound, score, move), true);
+	}
+
+	/**
+	 * Looks up the static evaluation of the given position
+	 * @param key the key of the position, with the evaluation mixed in
+	 * @return the packed entry, whose score is the evaluation, or 0 if the position is not
+	 * in the cache
+	 */
+	public long getEvaluation(long key) {
+		return get(key ^ EVALUATION_SALT);
+	}
+
+	/**
+	 * Stores the static evaluation of a position
+	 * @param key the key of the position, with the evaluation mixed in
+	 * @param score the evaluation
+	 */
+	public void putEvaluation(long key, int score) {
+		put(key ^ EVALUATION_SALT, pack(0, TranspositionTable.EXACT, score, -1), false);
+	}
+
+	private static long pack(int depth, int bound, int score, int move) {
+		return (score & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) bound << 40)
+				| ((long) ((move + 1) & 0xFF) << 48);
+	}
+
+	private long get(long key) {
+		int set = (int) key & setMask;
+		int base = set * WAYS;
+		synchronized (locks[set & (LOCKS - 1)]) {
+			for (int i = base; i < base + WAYS; i++) {
+				if (values[i] != 0 && keys[i] == key) {
+					used[i] = true;
+					hits.increment();
+					if (Metrics.ENABLED) {
+						CACHE_HITS.increment();
+					}
+					return values[i];
+				}
+			}
+		}
+		misses.increment();
+		if (Metrics.ENABLED) {
+			CACHE_MISSES.increment();
+		}
+		return 0;
+	}
+
+	private void put(long key, long value, boolean keepDeeper) {
+		int set = (int) key & setMask;
+		int base = set * WAYS;
+		synchronized (locks[set & (LOCKS - 1)]) {
+			int slot = -1;
+			for (int i = base; i < base + WAYS; i++) {
+				if (values[i] != 0 && keys[i] == key) {
+					if (keepDeeper && TranspositionTable.depth(values[i]) > TranspositionTable.depth(value))
+						return;
+					slot = i;
+					break;
+				}
+				if (slot == -1 && values[i] == 0) {
+					slot = i;
+				}
+			}
+			if (slot == -1) {
+				// sweep the hand round until it finds an entry not used since its last visit
+				int hand = hands[set];
+				while (used[base + hand]) {
+					used[base + hand] = false;
+					hand = (hand + 1) % WAYS;
+				}
+				slot = base + hand;
+				hands[set] = (byte) ((hand + 1) % WAYS);
+				evictions.increment();
+				if (Metrics.ENABLED) {
+					CACHE_EVICTIONS.increment();
+				}
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			used[slot] = true;
+		}
+		stores.increment();
+	}
+
+	/**
+	 * Empties the cache and resets the counters
+	 */
+	public void clear() {
+		for (int i = 0; i < LOCKS; i++) {
+			synchronized (locks[i]) {
+				for (int set = i; set <= setMask; set += LOCKS) {
+					Arrays.fill(values, set * WAYS, set * WAYS + WAYS, 0);
+					Arrays.fill(used, set * WAYS, set * WAYS + WAYS, false);
+				}
+			}
+		}
+		hits.reset();
+		misses.reset();
+		stores.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * Returns the number of slots in the cache
+	 * @return the number of slots in the cache
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the number of lookups that found their position
+	 * @return the number of lookups that found their position
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of lookups that did not find their position
+	 * @return the number of lookups that did not find their position
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of entries stored, including ones that replaced an older entry for
+	 * the same position
+	 * @return the number of entries stored
+	 */
+	public long getStores() {
+		return stores.sum();
+	}
+
+	/**
+	 * Returns the number of entries thrown out to make room for others
+	 * @return the number of entries thrown out to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+}
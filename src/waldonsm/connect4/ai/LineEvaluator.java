@@ -0,0 +1,158 @@
+package waldonsm.connect4.ai;
+
+import java.util.Arrays;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.WinningLines;
+
+/**
+ * A static evaluation for depth-limited searches, kept up to date as pieces are added and
+ * taken back so that evaluating a position costs next to nothing.
+ * <P>
+ * Every line on the board that could hold a winning run is worth something to a player who
+ * has pieces in it and whose opponent has none; how much depends on the number of pieces and
+ * the LineWeights in use.  The evaluation is the difference between what the lines are worth
+ * to each player.  Adding or removing a piece only touches the lines through its cell (at
+ * most <code>4 * winLength</code> of them), and evaluate() just returns a running total.
+ * <P>
+ * Cells are numbered as in WinningLines.  Like LineTracker, the evaluator does not check that
+ * moves are legal, and it is not thread safe: each search needs its own.
+ */
+public final class LineEvaluator {
+
+	private final WinningLines lines;
+	private final int height;
+	private final int[] cellLineStart;
+	private final int[] cellLines;
+	/**
+	 * The pieces in each line, packed as <code>player1Pieces + player2Pieces * (length + 1)</code>
+	 */
+	private final int[] states;
+	/**
+	 * The change in the worth of a line to player 1 when a piece is added to it, indexed by
+	 * player mark then the line's state before the piece is added
+	 */
+	private final int[][] deltas = new int[3][];
+	/**
+	 * The amount a piece adds to the state of a line, indexed by player mark
+	 */
+	private final int[] steps = new int[3];
+	/**
+	 * The worth of the position to player 1
+	 */
+	private int score;
+
+	/**
+	 * Creates a new evaluator for an empty board
+	 * @param lines the winning lines of the board
+	 * @param weights the worth of lines, by the number of pieces in them
+	 * @throws IllegalArgumentException if the weights are for a different win length
+	 */
+	public LineEvaluator(WinningLines lines, LineWeights weights) {
+		int length = lines.getLength();
+		if (weights.getWinLength() != length)
+			throw new IllegalArgumentException("Weights for win length " + weights.getWinLength()
+					+ " can't be used with lines of length " + length);
+		this.lines = lines;
+		height = lines.getHeight();
+		cellLineStart = lines.getCellLineStart();
+		cellLines = lines.getCellLines();
+		states = new int[lines.getLineCount()];
+
+		// work out the worth of every possible state once, so a move is just table lookups
+		int base = length + 1;
+		int[] worth = new int[base * base];
+		for (int p1 = 0; p1 <= length; p1++) {
+			for (int p2 = 0; p1 + p2 <= length; p2++) {
+				if (p2 == 0) {
+					worth[p1] = weights.getWeight(p1);
+				} else if (p1 == 0) {
+					worth[p2 * base] = -weights.getWeight(p2);
+				}
+			}
+		}
+		steps[Connect4Model.PLAYER1_MARK] = 1;
+		steps[Connect4Model.PLAYER2_MARK] = base;
+		for (int mark = Connect4Model.PLAYER1_MARK; mark <= Connect4Model.PLAYER2_MARK; mark++) {
+			int step = steps[mark];
+			int[] delta = new int[worth.length];
+			for (int state = 0; state + step < worth.length; state++) {
+				delta[state] = worth[state + step] - worth[state];
+			}
+			deltas[mark] = delta;
+		}
+	}
+
+	/**
+	 * Records a piece added at the given column and row
+	 * @param col the column
+	 * @param row the row
+	 * @param player the player who owns the piece
+	 */
+	public void add(int col, int row, int player) {
+		int cell = col * height + row;
+		int[] delta = deltas[player];
+		int step = steps[player];
+		int s = score;
+		for (int i = cellLineStart[cell], end = cellLineStart[cell + 1]; i < end; i++) {
+			int line = cellLines[i];
+			int state = states[line];
+			s += delta[state];
+			states[line] = state + step;
+		}
+		score = s;
+	}
+
+	/**
+	 * Records a piece taken back from the given column and row
+	 * @param col the column
+	 * @param row the row
+	 * @param player the player who owned the piece
+	 */
+	public void remove(int col, int row, int player) {
+		int cell = col * height + row;
+		int[] delta = deltas[player];
+		int step = steps[player];
+		int s = score;
+		for (int i = cellLineStart[cell], end = cellLineStart[cell + 1]; i < end; i++) {
+			int line = cellLines[i];
+			int state = states[line] - step;
+			s -= delta[state];
+			states[line] = state;
+		}
+		score = s;
+	}
+
+	/**
+	 * Replaces the position with the contents of the given model, which must be the same size
+	 * @param model the model to copy
+	 */
+	public void load(Connect4Model model) {
+		clear();
+		for (int col = 0; col < lines.getWidth(); col++) {
+			int mark;
+			for (int row = 0; row < height && (mark = model.getValueAt(row, col)) != Connect4Model.EMPTY_MARK; row++) {
+				add(col, row, mark);
+			}
+		}
+	}
+
+	/**
+	 * Empties the board
+	 */
+	public void clear() {
+		Arrays.fill(states, 0);
+		score = 0;
+	}
+
+	/**
+	 * Returns the worth of the position to the given player
+	 * @param player the player
+	 * @return the evaluation, between <code>-LineWeights.MAX_SCORE</code> and
+	 * <code>LineWeights.MAX_SCORE</code>
+	 */
+	public int evaluate(int player) {
+		int s = player == Connect4Model.PLAYER1_MARK ? score : -score;
+		return Math.max(-LineWeights.MAX_SCORE, Math.min(LineWeights.MAX_SCORE, s));
+	}
+}
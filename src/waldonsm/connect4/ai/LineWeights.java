@@ -0,0 +1,89 @@
+package waldonsm.connect4.ai;
+
+import java.util.Arrays;
+
+/**
+ * A set of weights for LineEvaluator: how much a line that only one player has pieces in is
+ * worth to that player, by the number of pieces they have in it.  Lines with pieces of both
+ * players are worth nothing to either, since neither can win with them.
+ * <P>
+ * A weight set is made for one win length and never changes, so one set can be shared by
+ * any number of evaluators and threads.
+ */
+public final class LineWeights {
+
+	/**
+	 * The most a position can be worth, kept well below NegamaxAI.MIN_WIN_SCORE so that no
+	 * evaluation is ever mistaken for a proven win
+	 */
+	public static final int MAX_SCORE = NegamaxAI.MIN_WIN_SCORE / 2;
+
+	private final int[] weights;
+
+	/**
+	 * Creates a new weight set
+	 * @param weights the worth of an open line with 1, 2, ... up to one less than the win
+	 * length of a player's pieces in it, so there is one weight less than the win length
+	 * @throws IllegalArgumentException if there are no weights or any is negative
+	 */
+	public LineWeights(int... weights) {
+		if (weights.length == 0)
+			throw new IllegalArgumentException("There must be at least one weight");
+		this.weights = new int[weights.length + 2];
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] < 0)
+				throw new IllegalArgumentException("Weights can't be negative");
+			this.weights[i + 1] = weights[i];
+		}
+		// a complete line is never evaluated, since the search stops at a win, but it needs a
+		// weight so that adding and removing the winning piece balance out
+		this.weights[weights.length + 1] = weights[weights.length - 1];
+	}
+
+	/**
+	 * Returns a weight set for the given win length where each piece in a line makes it
+	 * four times as valuable
+	 * @param winLength the number of pieces in a row needed to win
+	 * @return the weight set
+	 */
+	public static LineWeights standard(int winLength) {
+		int[] weights = new int[winLength - 1];
+		int w = 1;
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = w;
+			w = Math.min(w * 4, 1 << 16);
+		}
+		return new LineWeights(weights);
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win for this weight set
+	 * @return the win length this weight set is for
+	 */
+	public int getWinLength() {
+		return weights.length - 1;
+	}
+
+	/**
+	 * Returns the worth of an open line with the given number of one player's pieces
+	 * @param pieces the number of pieces, from 0 to the win length
+	 * @return the worth of the line
+	 */
+	public int getWeight(int pieces) {
+		return weights[pieces];
+	}
+
+	/**
+	 * Returns the weights indexed by number of pieces, from 0 to the win length.  The array
+	 * is a copy.
+	 * @return the weights
+	 */
+	public int[] getWeights() {
+		return weights.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "LineWeights" + Arrays.toString(Arrays.copyOfRange(weights, 1, weights.length - 1));
+	}
+}
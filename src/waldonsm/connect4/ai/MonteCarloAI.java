@@ -0,0 +1,378 @@
+package waldonsm.connect4.ai;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import waldonsm.connect4.metrics.Metrics;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4Models;
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * An AI that uses Monte Carlo tree search, for large boards where a full-width search can't
+ * look far enough ahead to play well.
+ * <P>
+ * Each iteration walks down the tree from the current position, picking moves with the UCT
+ * formula, until it reaches a leaf.  A leaf that has been visited before is expanded.  The
+ * game is then played out with random moves, and the result is added to every node on the
+ * way down.  When time runs out the most visited move is played.  Playouts are played on a
+ * MutableConnect4Model bitboard, so finding wins costs little and nothing is copied.
+ * <P>
+ * The AI can search on several threads at once, all sharing one tree ("tree
+ * parallelism").  A node's visit is counted as soon as a thread passes through it, and its
+ * result only when the playout finishes, so threads are pushed apart onto different lines
+ * (a "virtual loss").  Helper threads run in a ForkJoinPool, which may be shared.
+ * <P>
+ * The tree lives in a fixed pool of nodes (see MonteCarloTree), which is emptied before
+ * every move and on newGame() by resetting an allocation counter.  Once the pool is full the
+ * tree stops growing, but playouts carry on from its leaves.
+ */
+public class MonteCarloAI implements Connect4AI {
+
+	private static final LongAdder PLAYOUTS = Metrics.counter("mcts.playouts");
+
+	/**
+	 * The time budget used by chooseColumn(Connect4Model) unless another one is given
+	 */
+	public static final long DEFAULT_TIME_BUDGET_MILLIS = 1000;
+
+	/**
+	 * The size of the node pool unless another one is given
+	 */
+	public static final int DEFAULT_TREE_MEGABYTES = 64;
+
+	/**
+	 * The weight given to rarely visited moves in the UCT formula
+	 */
+	public static final double EXPLORATION = Math.sqrt(2);
+
+	/**
+	 * The number of visits a leaf needs before it is expanded
+	 */
+	private static final int EXPAND_VISITS = 2;
+
+	private static final int DRAW = 0;
+
+	private final long timeBudgetMillis;
+	private final MonteCarloTree tree;
+	private final int threads;
+	private final ForkJoinPool pool;
+	private Worker[] workers;
+	/**
+	 * Set once the calling thread stops searching, so the helpers stop too even if the
+	 * deadline hasn't passed
+	 */
+	private volatile boolean stopped;
+	private long lastPlayouts;
+	private long lastNanos;
+	private long[] lastThreadPlayouts;
+	private int lastNodes;
+	private double lastWinRate;
+
+	/**
+	 * Creates a new MonteCarloAI with the default time budget
+	 */
+	public MonteCarloAI() {
+		this(DEFAULT_TIME_BUDGET_MILLIS);
+	}
+
+	/**
+	 * Creates a new MonteCarloAI that thinks for the given time per move
+	 * @param timeBudgetMillis the time budget for each move, in milliseconds
+	 */
+	public MonteCarloAI(long timeBudgetMillis) {
+		this(timeBudgetMillis, DEFAULT_TREE_MEGABYTES, 1, null);
+	}
+
+	/**
+	 * Creates a new MonteCarloAI that searches on several threads at once
+	 * @param timeBudgetMillis the time budget for each move, in milliseconds
+	 * @param treeMegabytes the most memory the node pool may use, in megabytes
+	 * @param threads the number of threads to search with, including the calling thread
+	 * @param pool the pool to run the helper threads in, or null for the common pool
+	 */
+	public MonteCarloAI(long timeBudgetMillis, int treeMegabytes, int threads, ForkJoinPool pool) {
+		if (timeBudgetMillis <= 0)
+			throw new IllegalArgumentException("The time budget must be positive");
+		if (threads <= 0)
+			throw new IllegalArgumentException("There must be at least one thread");
+		this.timeBudgetMillis = timeBudgetMillis;
+		this.threads = threads;
+		this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+		tree = new MonteCarloTree(treeMegabytes);
+		lastThreadPlayouts = new long[threads];
+	}
+
+	@Override
+	public int chooseColumn(Connect4Model model) {
+		return chooseColumn(model, timeBudgetMillis);
+	}
+
+	/**
+	 * Chooses a move, thinking for the given amount of time.  If the thread is interrupted
+	 * the search stops early, as if it had run out of time.
+	 * @param model the Connect4Model with the current board
+	 * @param budgetMillis how long the AI may think, in milliseconds
+	 * @return the move chosen by the AI
+	 */
+	public int chooseColumn(Connect4Model model, long budgetMillis) {
+		final long start = System.nanoTime();
+		final long deadline = start + budgetMillis * 1000000L;
+		if (workers == null || !workers[0].fits(model)) {
+			workers = new Worker[threads];
+			for (int i = 0; i < threads; i++) {
+				workers[i] = new Worker(model.getHeight(), model.getWidth(), model.getWinLength(), i);
+			}
+		}
+		tree.reset();
+		for (int i = 0; i < threads; i++) {
+			workers[i].setPosition(model);
+		}
+
+		stopped = false;
+		ForkJoinTask<?>[] helpers = new ForkJoinTask<?>[threads - 1];
+		for (int i = 1; i < threads; i++) {
+			final Worker helper = workers[i];
+			helpers[i - 1] = pool.submit(new Runnable() {
+				public void run() {
+					helper.run(deadline);
+				}
+			});
+		}
+		workers[0].run(deadline);
+		// the calling thread may have been interrupted
+		stopped = true;
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].quietlyJoin();
+		}
+
+		long playouts = 0;
+		for (int i = 0; i < threads; i++) {
+			lastThreadPlayouts[i] = workers[i].playouts;
+			playouts += workers[i].playouts;
+		}
+		lastPlayouts = playouts;
+		if (Metrics.ENABLED) {
+			PLAYOUTS.add(playouts);
+		}
+		lastNanos = System.nanoTime() - start;
+		lastNodes = tree.size();
+		if (tree.getFirstChild(MonteCarloTree.ROOT) < 0) {
+			// not even one playout finished, so play the first legal move
+			lastWinRate = 0.5;
+			int[] moves = new int[model.getWidth()];
+			model.getAvailableMoves(moves);
+			return moves[0];
+		}
+		int best = tree.mostVisited(MonteCarloTree.ROOT);
+		lastWinRate = tree.getVisits(best) == 0 ? 0.5 : tree.getWins(best) / (2.0 * tree.getVisits(best));
+		return tree.getMove(best);
+	}
+
+	@Override
+	public void newGame() {
+		tree.reset();
+		lastPlayouts = 0;
+		lastNanos = 0;
+		lastNodes = 0;
+		lastWinRate = 0;
+		lastThreadPlayouts = new long[threads];
+	}
+
+	/**
+	 * Returns the number of threads the AI searches with
+	 * @return the number of threads the AI searches with
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the number of games played out for the last move, by all threads
+	 * @return the number of games played out for the last move
+	 */
+	public long getLastPlayouts() {
+		return lastPlayouts;
+	}
+
+	/**
+	 * Returns the number of games played out for the last move by each thread, the calling
+	 * thread first
+	 * @return the number of games played out for the last move by each thread
+	 */
+	public long[] getLastThreadPlayouts() {
+		return lastThreadPlayouts.clone();
+	}
+
+	/**
+	 * Returns how long the last move took to choose, in nanoseconds
+	 * @return how long the last move took to choose, in nanoseconds
+	 */
+	public long getLastNanos() {
+		return lastNanos;
+	}
+
+	/**
+	 * Returns the playout speed for the last move, over all threads
+	 * @return the number of games played out per second for the last move
+	 */
+	public double getLastPlayoutsPerSecond() {
+		return lastNanos == 0 ? 0 : lastPlayouts * 1e9 / lastNanos;
+	}
+
+	/**
+	 * Returns the playout speed for the last move per thread.  Comparing this with the speed
+	 * of a single-threaded AI shows how well the search scales.
+	 * @return the number of games played out per second per thread for the last move
+	 */
+	public double getLastPlayoutsPerSecondPerThread() {
+		return getLastPlayoutsPerSecond() / threads;
+	}
+
+	/**
+	 * Returns the number of tree nodes in use after the last move
+	 * @return the number of tree nodes in use after the last move
+	 */
+	public int getLastNodes() {
+		return lastNodes;
+	}
+
+	/**
+	 * Returns the most nodes the tree can hold
+	 * @return the most nodes the tree can hold
+	 */
+	public int getTreeCapacity() {
+		return tree.getCapacity();
+	}
+
+	/**
+	 * Returns the fraction of playouts through the last move that the AI won, counting a
+	 * draw as half a win
+	 * @return the win rate of the last move, from 0 to 1
+	 */
+	public double getLastWinRate() {
+		return lastWinRate;
+	}
+
+	/**
+	 * One searching thread, with its own copy of the board
+	 */
+	private final class Worker {
+
+		private final MutableConnect4Model board;
+		private final int cells;
+		private final int[] path;
+		private final int[] moves;
+		private long random;
+		private int toMove;
+		private long playouts;
+
+		Worker(int height, int width, int winLength, int index) {
+			board = Connect4Models.newSearchModel(height, width, winLength);
+			cells = height * width;
+			path = new int[cells + 1];
+			moves = new int[width];
+			random = 0x9E3779B97F4A7C15L * (index + 1) ^ System.nanoTime();
+		}
+
+		boolean fits(Connect4Model model) {
+			return model.getWidth() == board.getWidth() && model.getHeight() == board.getHeight()
+					&& model.getWinLength() == board.getWinLength();
+		}
+
+		void setPosition(Connect4Model model) {
+			board.load(model);
+			int p1 = board.getPieceCount(Connect4Model.PLAYER1_MARK);
+			int p2 = board.getPieceCount(Connect4Model.PLAYER2_MARK);
+			toMove = p1 > p2 ? Connect4Model.PLAYER2_MARK : Connect4Model.PLAYER1_MARK;
+			playouts = 0;
+		}
+
+		void run(long deadline) {
+			for (int i = 0; ; i++) {
+				if ((i & 63) == 0 && (stopped || System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()))
+					return;
+				iterate();
+				playouts++;
+			}
+		}
+
+		/**
+		 * Selects a leaf, plays a game out from it and adds the result to the tree
+		 */
+		private void iterate() {
+			int node = MonteCarloTree.ROOT;
+			int depth = 0;
+			int added = 0;
+			int player = toMove;
+			int winner = -1;
+			path[0] = node;
+			tree.visit(node);
+			int filled = board.getPieceCount(Connect4Model.PLAYER1_MARK) + board.getPieceCount(Connect4Model.PLAYER2_MARK);
+			if (filled == cells) {
+				winner = DRAW;
+			}
+			while (winner < 0) {
+				int first = tree.getFirstChild(node);
+				if (first == MonteCarloTree.UNEXPANDED && (node == MonteCarloTree.ROOT || tree.getVisits(node) >= EXPAND_VISITS)) {
+					first = tree.expand(node, moves, board.getAvailableMoves(moves));
+				}
+				if (first < 0)
+					break;
+				int child = tree.select(node, EXPLORATION);
+				tree.visit(child);
+				int col = tree.getMove(child);
+				int row = board.addPiece(col, player);
+				added++;
+				path[++depth] = child;
+				node = child;
+				if (board.isWin(col, row)) {
+					winner = player;
+				} else if (++filled == cells) {
+					winner = DRAW;
+				}
+				player = 3 - player;
+			}
+
+			// play the rest of the game out at random, except that a player who can win at
+			// once always does
+			while (winner < 0) {
+				if (board.hasWinningMove(player)) {
+					winner = player;
+					break;
+				}
+				int count = board.getAvailableMoves(moves);
+				int col = moves[(int) (((nextRandom() >>> 32) * count) >>> 32)];
+				int row = board.addPiece(col, player);
+				added++;
+				if (board.isWin(col, row)) {
+					winner = player;
+				} else if (++filled == cells) {
+					winner = DRAW;
+				}
+				player = 3 - player;
+			}
+			for (int i = 0; i < added; i++) {
+				board.undo();
+			}
+
+			// the move into a node at an odd depth was made by the player to move at the root
+			for (int d = 0; d <= depth; d++) {
+				int mover = d % 2 == 1 ? toMove : 3 - toMove;
+				tree.addResult(path[d], winner == mover ? 2 : winner == DRAW ? 1 : 0);
+			}
+		}
+
+		/**
+		 * xorshift64*
+		 */
+		private long nextRandom() {
+			random ^= random >>> 12;
+			random ^= random << 25;
+			random ^= random >>> 27;
+			return random * 0x2545F4914F6CDD1DL;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package waldonsm.connect4.ai;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The search tree of a MonteCarloAI, kept in a fixed pool of nodes.
+ * <P>
+ * Nodes are numbered, and each field of a node lives in its own array indexed by that
+ * number, so the tree creates no garbage and its size is known exactly.  The children of a
+ * node are allocated together and sit next to each other, so a node only needs to know its
+ * first child and how many it has.  Nodes are allocated by bumping a counter, so emptying the
+ * tree is just setting the counter back to 0.
+ * <P>
+ * Several threads may search the tree at once.  Visit and win counts are updated atomically,
+ * and a node is expanded by whichever thread first swaps its first child from UNEXPANDED to
+ * EXPANDING; the others carry on as if it were a leaf.  A visit is counted as a node is
+ * selected, but its result is only added once the playout is finished, so until then the
+ * visit counts as a loss ("virtual loss") and steers other threads elsewhere.
+ * <P>
+ * Results are counted in half points: 2 for a win and 1 for a draw, for the player who made
+ * the move leading to the node.
+ */
+final class MonteCarloTree {
+
+	/**
+	 * The first child of a node that hasn't been expanded yet
+	 */
+	static final int UNEXPANDED = -1;
+	/**
+	 * The first child of a node another thread is expanding
+	 */
+	static final int EXPANDING = -2;
+	/**
+	 * The number of the root node
+	 */
+	static final int ROOT = 0;
+
+	/**
+	 * The number of bytes used by each node, rounded up
+	 */
+	static final int BYTES_PER_NODE = 16;
+
+	private final int capacity;
+	private final AtomicIntegerArray firstChild;
+	private final AtomicIntegerArray visits;
+	private final AtomicIntegerArray wins;
+	private final short[] childCount;
+	private final short[] moves;
+	private final AtomicInteger size = new AtomicInteger();
+
+	/**
+	 * Creates a new tree that uses at most the given number of megabytes
+	 * @param megabytes the most memory the tree may use, in megabytes
+	 */
+	MonteCarloTree(int megabytes) {
+		if (megabytes <= 0)
+			throw new IllegalArgumentException("The tree needs at least one megabyte");
+		capacity = (int) Math.min(Integer.MAX_VALUE - 8, megabytes * (1L << 20) / BYTES_PER_NODE);
+		firstChild = new AtomicIntegerArray(capacity);
+		visits = new AtomicIntegerArray(capacity);
+		wins = new AtomicIntegerArray(capacity);
+		childCount = new short[capacity];
+		moves = new short[capacity];
+		reset();
+	}
+
+	/**
+	 * Empties the tree, leaving just an unexpanded root.  Must not be called while the tree
+	 * is being searched.
+	 */
+	void reset() {
+		size.set(1);
+		init(ROOT, -1);
+	}
+
+	private void init(int node, int move) {
+		firstChild.set(node, UNEXPANDED);
+		visits.set(node, 0);
+		wins.set(node, 0);
+		childCount[node] = 0;
+		moves[node] = (short) move;
+	}
+
+	/**
+	 * Gives the node one child for each of the given moves, unless another thread got there
+	 * first or the tree is full
+	 * @param node the node
+	 * @param moveList the moves
+	 * @param count the number of moves
+	 * @return the first child of the node, or a negative number if it has none
+	 */
+	int expand(int node, int[] moveList, int count) {
+		if (!firstChild.compareAndSet(node, UNEXPANDED, EXPANDING))
+			return firstChild.get(node);
+		int first;
+		do {
+			first = size.get();
+			if (first > capacity - count) {
+				firstChild.set(node, UNEXPANDED);
+				return UNEXPANDED;
+			}
+		} while (!size.compareAndSet(first, first + count));
+		for (int i = 0; i < count; i++) {
+			init(first + i, moveList[i]);
+		}
+		childCount[node] = (short) count;
+		// a volatile write, so the children are visible to any thread that sees it
+		firstChild.set(node, first);
+		return first;
+	}
+
+	/**
+	 * Picks the child of an expanded node with the best upper confidence bound (UCT).
+	 * Children that have never been visited are picked first.
+	 * @param node the node
+	 * @param exploration how much weight to give to rarely visited children
+	 * @return the child picked
+	 */
+	int select(int node, double exploration) {
+		int first = firstChild.get(node);
+		int end = first + childCount[node];
+		double logVisits = Math.log(Math.max(1, visits.get(node)));
+		int best = first;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int child = first; child < end; child++) {
+			int n = visits.get(child);
+			if (n == 0)
+				return child;
+			double value = wins.get(child) / (2.0 * n) + exploration * Math.sqrt(logVisits / n);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the most visited child of an expanded node
+	 * @param node the node
+	 * @return the most visited child
+	 */
+	int mostVisited(int node) {
+		int first = firstChild.get(node);
+		int end = first + childCount[node];
+		int best = first;
+		for (int child = first + 1; child < end; child++) {
+			if (visits.get(child) > visits.get(best)) {
+				best = child;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Counts a visit to a node, which is a loss until its result is added
+	 */
+	void visit(int node) {
+		visits.getAndIncrement(node);
+	}
+
+	/**
+	 * Adds the result of a playout through a node
+	 * @param node the node
+	 * @param halfPoints 2 for a win, 1 for a draw or 0 for a loss
+	 */
+	void addResult(int node, int halfPoints) {
+		if (halfPoints != 0) {
+			wins.getAndAdd(node, halfPoints);
+		}
+	}
+
+	int getFirstChild(int node) {
+		return firstChild.get(node);
+	}
+
+	int getChildCount(int node) {
+		return childCount[node];
+	}
+
+	int getMove(int node) {
+		return moves[node];
+	}
+
+	int getVisits(int node) {
+		return visits.get(node);
+	}
+
+	int getWins(int node) {
+		return wins.get(node);
+	}
+
+	/**
+	 * Returns the number of nodes in use
+	 */
+	int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns the most nodes the tree can hold
+	 */
+	int getCapacity() {
+		return capacity;
+	}
+}
@@ -0,0 +1,429 @@
+package waldonsm.connect4.ai;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import waldonsm.connect4.metrics.Metrics;
+
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * An AI that searches the game tree with negamax and alpha-beta pruning.
+ * <P>
+ * The search is iteratively deepened: it searches one ply deep, then two, and so on until
+ * the time budget runs out, and plays the best move of the deepest search that finished.
+ * The clock is checked every thousand or so nodes, so a move is never more than a fraction
+ * of a millisecond late.  Columns are tried center first, and the best move of the previous
+ * iteration is always tried first at the root.
+ * <P>
+ * Search results are kept in a TranspositionTable between moves, since the positions
+ * searched for one move are mostly searched again for the next.  Entries from earlier games
+ * are replaced as the new game needs their space.
+ * <P>
+ * The AI can search on several threads at once ("Lazy SMP").  Every thread searches the
+ * whole tree, but they share the transposition table, so each thread mostly skips work
+ * another one has already done.  Half of the helper threads start one ply deeper than the
+ * main thread to spread them out.  The move played is the one from the deepest iteration
+ * any thread finished.  Helper threads run in a ForkJoinPool, which may be shared.
+ * <P>
+ * The board is copied into a single <code>long</code> bitboard when it has at most
+ * <code>width * (height + 1) &lt;= 64</code> cells, and into a multi-word bitboard otherwise,
+ * so any board size and win length can be played.
+ * <P>
+ * Near the end of a standard game, once few enough cells are empty, the AI hands the
+ * position to a Connect4Solver instead, and plays a proven best move: the quickest win, or
+ * a draw, or the slowest loss.  The solver may use half the time budget; if it hasn't
+ * finished by then, the AI searches as usual for the rest of the time.  With the default
+ * number of empty cells the solver finishes well inside a second on a 7x6 board.
+ * <P>
+ * An EvaluationCache may be shared by any number of AIs.  Before searching, the AI looks its
+ * position up there, and plays the cached move at once if it was proven or searched to the
+ * end of the game (or at least as deep as asked); after searching it stores its result for
+ * the others.  Only whole moves are shared this way, so they only help another AI that
+ * reaches the very same position (or its mirror image).  The static evaluations made at the
+ * depth limit are shared through the cache too, by AIs with the same line weights.
+ */
+public class NegamaxAI implements Connect4AI {
+
+	private static final LongAdder NODES = Metrics.counter("search.nodes");
+	private static final LongAdder TABLE_HITS = Metrics.counter("table.hits");
+	private static final LongAdder TABLE_MISSES = Metrics.counter("table.misses");
+	private static final LongAdder SOLVER_NODES = Metrics.counter("solver.nodes");
+
+	/**
+	 * The time budget used by chooseColumn(Connect4Model) unless another one is given
+	 */
+	public static final long DEFAULT_TIME_BUDGET_MILLIS = 1000;
+
+	/**
+	 * The size of the transposition table unless another one is given
+	 */
+	public static final int DEFAULT_TABLE_MEGABYTES = 64;
+
+	/**
+	 * The score of a move that wins at once.  A win in N plies scores WIN_SCORE - N.
+	 */
+	public static final int WIN_SCORE = NegamaxSearch.WIN_SCORE;
+
+	/**
+	 * Any score at least this large is a proven win, and any score at least this negative is
+	 * a proven loss
+	 */
+	public static final int MIN_WIN_SCORE = NegamaxSearch.MIN_WIN_SCORE;
+
+	/**
+	 * The number of empty cells at or below which positions are solved exactly, unless
+	 * another number is set
+	 */
+	public static final int DEFAULT_SOLVER_EMPTY_CELLS = 24;
+
+	private final long timeBudgetMillis;
+	private final int tableMegabytes;
+	private final TranspositionTable table;
+	private Connect4Solver solver;
+	private int solverEmptyCells = DEFAULT_SOLVER_EMPTY_CELLS;
+	private EvaluationCache cache;
+	private LineWeights weights;
+	private final int threads;
+	private final ForkJoinPool pool;
+	private NegamaxSearch[] searches;
+	private long lastNodes;
+	private long lastNanos;
+	private int lastDepth;
+	private int lastScore;
+
+	/**
+	 * Creates a new NegamaxAI with the default time budget
+	 */
+	public NegamaxAI() {
+		this(DEFAULT_TIME_BUDGET_MILLIS);
+	}
+
+	/**
+	 * Creates a new NegamaxAI that thinks for at most the given time per move
+	 * @param timeBudgetMillis the time budget for each move, in milliseconds
+	 */
+	public NegamaxAI(long timeBudgetMillis) {
+		this(timeBudgetMillis, DEFAULT_TABLE_MEGABYTES);
+	}
+
+	/**
+	 * Creates a new NegamaxAI that thinks for at most the given time per move
+	 * @param timeBudgetMillis the time budget for each move, in milliseconds
+	 * @param tableMegabytes the most memory the transposition table may use, in megabytes
+	 */
+	public NegamaxAI(long timeBudgetMillis, int tableMegabytes) {
+		this(timeBudgetMillis, tableMegabytes, 1, null);
+	}
+
+	/**
+	 * Creates a new NegamaxAI that searches on several threads at once
+	 * @param timeBudgetMillis the time budget for each move, in milliseconds
+	 * @param tableMegabytes the most memory the transposition table may use, in megabytes
+	 * @param threads the number of threads to search with, including the calling thread
+	 * @param pool the pool to run the helper threads in, or null for the common pool
+	 */
+	public NegamaxAI(long timeBudgetMillis, int tableMegabytes, int threads, ForkJoinPool pool) {
+		if (timeBudgetMillis <= 0)
+			throw new IllegalArgumentException("The time budget must be positive");
+		if (threads <= 0)
+			throw new IllegalArgumentException("There must be at least one thread");
+		this.timeBudgetMillis = timeBudgetMillis;
+		this.tableMegabytes = tableMegabytes;
+		this.threads = threads;
+		this.pool = pool == null ? ForkJoinPool.commonPool() : pool;
+		table = new TranspositionTable(tableMegabytes);
+	}
+
+	@Override
+	public int chooseColumn(Connect4Model model) {
+		return chooseColumn(model, timeBudgetMillis);
+	}
+
+	/**
+	 * Chooses a move, thinking for at most the given amount of time.  If the thread is
+	 * interrupted the search stops early, as if it had run out of time.
+	 * @param model the Connect4Model with the current board
+	 * @param budgetMillis the longest the AI may think, in milliseconds
+	 * @return the move chosen by the AI
+	 */
+	public int chooseColumn(Connect4Model model, long budgetMillis) {
+		return chooseColumn(model, budgetMillis, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Chooses a move, searching no deeper than the given depth and thinking for at most the
+	 * given amount of time.  If the thread is interrupted the search stops early, as if it had
+	 * run out of time.  Positions are only solved exactly if <code>maxDepth</code> reaches
+	 * the end of the game.
+	 * @param model the Connect4Model with the current board
+	 * @param budgetMillis the longest the AI may think, in milliseconds
+	 * @param maxDepth the deepest the AI may search, in plies
+	 * @return the move chosen by the AI
+	 */
+	public int chooseColumn(Connect4Model model, long budgetMillis, final int maxDepth) {
+		final long start = System.nanoTime();
+		final long deadline = start + budgetMillis * 1000000L;
+		if (searches == null || !searches[0].fits(model)) {
+			searches = new NegamaxSearch[threads];
+			for (int i = 0; i < threads; i++) {
+				searches[i] = new NegamaxSearch(model.getHeight(), model.getWidth(), model.getWinLength(), table, weights);
+				searches[i].setEvaluationCache(cache);
+			}
+			table.clear();
+		}
+		for (int i = 0; i < threads; i++) {
+			searches[i].setPosition(model);
+		}
+		NegamaxSearch main = searches[0];
+		int empty = countEmptyCells(model);
+		if (cache != null) {
+			long entry = cache.getSearchResult(main.getCacheKey());
+			if (entry != 0 && (Math.abs(TranspositionTable.score(entry)) >= MIN_WIN_SCORE
+					|| TranspositionTable.depth(entry) >= Math.min(maxDepth, empty))) {
+				lastDepth = TranspositionTable.depth(entry);
+				lastScore = TranspositionTable.score(entry);
+				lastNodes = 0;
+				lastNanos = System.nanoTime() - start;
+				return main.canonicalColumn(TranspositionTable.move(entry));
+			}
+		}
+		if (empty <= solverEmptyCells && empty <= maxDepth) {
+			if (solver == null || !solver.canSolve(model)) {
+				solver = Connect4Solver.fits(model) ? new Connect4Solver(model.getHeight(), model.getWidth(), tableMegabytes) : null;
+			}
+			if (solver != null) {
+				int move = solve(model, empty, start, start + (deadline - start) / 2);
+				if (move >= 0)
+					return store(main, move);
+			}
+		}
+
+		// if the solver gave up, only the time left counts towards deciding when to stop
+		final long searchStart = System.nanoTime();
+		long tableHits = Metrics.ENABLED ? table.getHits() : 0;
+		long tableMisses = Metrics.ENABLED ? table.getMisses() : 0;
+		ForkJoinTask<?>[] helpers = new ForkJoinTask<?>[threads - 1];
+		for (int i = 1; i < threads; i++) {
+			final NegamaxSearch helper = searches[i];
+			final int startDepth = 1 + i % 2;
+			helpers[i - 1] = pool.submit(new Runnable() {
+				public void run() {
+					helper.think(startDepth, maxDepth, searchStart, deadline, false);
+				}
+			});
+		}
+		main.think(1, maxDepth, searchStart, deadline, true);
+		for (int i = 1; i < threads; i++) {
+			searches[i].stop();
+		}
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].quietlyJoin();
+		}
+
+		NegamaxSearch best = main;
+		long nodes = 0;
+		for (int i = 0; i < threads; i++) {
+			if (searches[i].getCompletedDepth() > best.getCompletedDepth()) {
+				best = searches[i];
+			}
+			nodes += searches[i].getNodes();
+		}
+		lastDepth = best.getCompletedDepth();
+		lastScore = best.getBestScore();
+		lastNodes = nodes;
+		lastNanos = System.nanoTime() - start;
+		if (Metrics.ENABLED) {
+			NODES.add(nodes);
+			TABLE_HITS.add(table.getHits() - tableHits);
+			TABLE_MISSES.add(table.getMisses() - tableMisses);
+		}
+		return store(main, best.getBestMove());
+	}
+
+	/**
+	 * Stores the result of the last move in the shared cache, if there is one, and returns
+	 * the move
+	 */
+	private int store(NegamaxSearch root, int move) {
+		// a search interrupted before it finished one iteration has nothing worth sharing
+		if (cache != null && move >= 0 && lastDepth > 0) {
+			cache.putSearchResult(root.getCacheKey(), lastDepth, TranspositionTable.EXACT, lastScore, root.canonicalColumn(move));
+		}
+		return move;
+	}
+
+	/**
+	 * Plays the solver's best move and records its score as a search score, or returns -1
+	 * if the solver didn't finish in time
+	 */
+	private int solve(Connect4Model model, int empty, long start, long end) {
+		long nodes = solver.getNodes();
+		int[] scores = solver.analyze(model, end);
+		if (scores == null) {
+			if (Metrics.ENABLED) {
+				SOLVER_NODES.add(solver.getNodes() - nodes);
+			}
+			return -1;
+		}
+		int best = solver.getBestMove(scores);
+		int score = scores[best];
+		int plies = solver.getPliesToEnd(score, model.getWidth() * model.getHeight() - empty);
+		if (score > 0) {
+			lastScore = WIN_SCORE - plies;
+		} else if (score < 0) {
+			lastScore = -(WIN_SCORE - plies);
+		} else {
+			lastScore = 0;
+		}
+		lastDepth = empty;
+		lastNodes = solver.getNodes() - nodes;
+		lastNanos = System.nanoTime() - start;
+		if (Metrics.ENABLED) {
+			SOLVER_NODES.add(lastNodes);
+		}
+		return best;
+	}
+
+	private static int countEmptyCells(Connect4Model model) {
+		int empty = 0;
+		for (int col = 0; col < model.getWidth(); col++) {
+			for (int row = model.getHeight() - 1; row >= 0 && model.getValueAt(row, col) == Connect4Model.EMPTY_MARK; row--) {
+				empty++;
+			}
+		}
+		return empty;
+	}
+
+	/**
+	 * Sets the number of empty cells at or below which positions are solved exactly instead
+	 * of searched.  Only standard games on boards that fit in a bitboard are solved.
+	 * @param emptyCells the number of empty cells, or -1 to never solve positions
+	 */
+	public void setSolverEmptyCells(int emptyCells) {
+		solverEmptyCells = emptyCells;
+	}
+
+	/**
+	 * Returns the number of empty cells at or below which positions are solved exactly
+	 * @return the number of empty cells at or below which positions are solved exactly
+	 */
+	public int getSolverEmptyCells() {
+		return solverEmptyCells;
+	}
+
+	@Override
+	public void newGame() {
+		table.newGame();
+		lastNodes = 0;
+		lastNanos = 0;
+		lastDepth = 0;
+		lastScore = 0;
+	}
+
+	/**
+	 * Sets the weights of the static evaluation used at the depth limit.  By default (or
+	 * when set to null) positions are scored by counting each player's threats.  The
+	 * transposition table is cleared, since its scores came from the old evaluation.
+	 * @param weights the weights for a LineEvaluator, or null to count threats
+	 */
+	public void setLineWeights(LineWeights weights) {
+		this.weights = weights;
+		searches = null;
+	}
+
+	/**
+	 * Returns the weights of the static evaluation
+	 * @return the weights, or null if positions are scored by counting threats
+	 */
+	public LineWeights getLineWeights() {
+		return weights;
+	}
+
+	/**
+	 * Sets the cache this AI shares results with other AIs through
+	 * @param cache the cache, or null to share nothing
+	 */
+	public void setEvaluationCache(EvaluationCache cache) {
+		this.cache = cache;
+		if (searches != null) {
+			for (int i = 0; i < searches.length; i++) {
+				searches[i].setEvaluationCache(cache);
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache this AI shares results with other AIs through
+	 * @return the cache, or null if there is none
+	 */
+	public EvaluationCache getEvaluationCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the time budget used by chooseColumn(Connect4Model)
+	 * @return the time budget for each move, in milliseconds
+	 */
+	public long getTimeBudgetMillis() {
+		return timeBudgetMillis;
+	}
+
+	/**
+	 * Returns the number of threads the AI searches with
+	 * @return the number of threads the AI searches with
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Returns the transposition table, mostly so its counters can be read
+	 * @return the transposition table
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+
+	/**
+	 * Returns the number of positions searched for the last move, by all threads
+	 * @return the number of positions searched for the last move
+	 */
+	public long getLastNodes() {
+		return lastNodes;
+	}
+
+	/**
+	 * Returns how long the last move took to choose, in nanoseconds
+	 * @return how long the last move took to choose, in nanoseconds
+	 */
+	public long getLastNanos() {
+		return lastNanos;
+	}
+
+	/**
+	 * Returns the search speed for the last move
+	 * @return the number of positions searched per second for the last move
+	 */
+	public double getLastNodesPerSecond() {
+		return lastNanos == 0 ? 0 : lastNodes * 1e9 / lastNanos;
+	}
+
+	/**
+	 * Returns the depth of the deepest search that finished for the last move
+	 * @return the depth of the deepest search that finished for the last move
+	 */
+	public int getLastDepth() {
+		return lastDepth;
+	}
+
+	/**
+	 * Returns the score of the last move, from the AI's point of view.  Scores at least
+	 * MIN_WIN_SCORE away from 0 are proven wins or losses.
+	 * @return the score of the last move
+	 */
+	public int getLastScore() {
+		return lastScore;
+	}
+}
@@ -0,0 +1,375 @@
+package waldonsm.connect4.ai;
+
+import java.util.Arrays;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4Models;
+import waldonsm.connect4.model.MutableConnect4Model;
+import waldonsm.connect4.model.WinningLines;
+
+/**
+ * A single negamax search with alpha-beta pruning over a MutableConnect4Model: a
+ * BitboardConnect4Model when the board fits in one, and a MultiWordBitboardConnect4Model
+ * otherwise.  The board belongs to the search, so moves are made and taken back in place
+ * without copying.
+ * <P>
+ * Scores are from the point of view of the player to move.  A win is worth
+ * <code>WIN_SCORE</code> minus the number of plies it takes, so the search prefers
+ * quick wins and slow losses.  Results are cached in a TranspositionTable, which may
+ * outlive the search and may be shared with searches running on other threads.  The table
+ * is keyed by canonical hash, so a position and its mirror image share an entry.
+ * <P>
+ * Positions at the depth limit are scored by a LineEvaluator if the search is given
+ * LineWeights, and otherwise by counting each player's threats.
+ */
+final class NegamaxSearch {
+
+	/**
+	 * The score of winning right now
+	 */
+	static final int WIN_SCORE = 1000000;
+
+	/**
+	 * Any score at least this large is a proven win (or loss, if negative)
+	 */
+	static final int MIN_WIN_SCORE = WIN_SCORE - 1000;
+
+	/**
+	 * The clock is only read once every this many nodes (must be a power of 2 minus 1)
+	 */
+	private static final int CHECK_INTERVAL = 1023;
+
+	private final MutableConnect4Model board;
+	private final TranspositionTable table;
+	/**
+	 * Kept in step with the board, or null to evaluate by counting threats
+	 */
+	private final LineEvaluator evaluator;
+	/**
+	 * Identifies the static evaluation in the keys of evaluations shared through the cache
+	 */
+	private final long evaluationKey;
+	private EvaluationCache cache;
+	private final int cells;
+	private final int width;
+	/**
+	 * The columns in the order they are tried: center first, then working outwards
+	 */
+	private final int[] order;
+
+	private int filled;
+	private int rootPlayer;
+	private long nodes;
+	private long deadline;
+	private boolean mustFinish;
+	private boolean aborted;
+	private volatile boolean stopped;
+
+	private final int[] result = new int[2];
+	private int bestMove;
+	private int bestScore;
+	private int completedDepth;
+
+	NegamaxSearch(int height, int width, int winLength, TranspositionTable table, LineWeights weights) {
+		board = Connect4Models.newSearchModel(height, width, winLength);
+		this.table = table;
+		evaluator = weights == null ? null : new LineEvaluator(new WinningLines(height, width, winLength), weights);
+		evaluationKey = weights == null ? 0 : (Arrays.hashCode(weights.getWeights()) + 1) * 0xC2B2AE3D27D4EB4FL;
+		cells = width * height;
+		this.width = width;
+		order = centerFirstOrder(width);
+	}
+
+	/**
+	 * Returns the columns of a board of the given width, ordered from the center outwards
+	 */
+	static int[] centerFirstOrder(int width) {
+		int[] order = new int[width];
+		for (int i = 0; i < width; i++) {
+			order[i] = width / 2 + (i % 2 == 0 ? i / 2 : -(i + 1) / 2);
+		}
+		return order;
+	}
+
+	/**
+	 * Returns true if the given model is the same size as the search board, and has the same
+	 * win length
+	 */
+	boolean fits(Connect4Model model) {
+		return model.getWidth() == board.getWidth() && model.getHeight() == board.getHeight()
+				&& model.getWinLength() == board.getWinLength();
+	}
+
+	/**
+	 * Sets the cache that static evaluations are shared through, or null to share none
+	 */
+	void setEvaluationCache(EvaluationCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Copies the given position into the search board, and gets ready to search it
+	 */
+	void setPosition(Connect4Model model) {
+		board.load(model);
+		if (evaluator != null) {
+			evaluator.load(board);
+		}
+		int p1 = board.getPieceCount(Connect4Model.PLAYER1_MARK);
+		int p2 = board.getPieceCount(Connect4Model.PLAYER2_MARK);
+		filled = p1 + p2;
+		rootPlayer = p1 > p2 ? Connect4Model.PLAYER2_MARK : Connect4Model.PLAYER1_MARK;
+		nodes = 0;
+		stopped = false;
+	}
+
+	/**
+	 * Runs iterative deepening on the position given to setPosition, until the outcome is
+	 * known, the deadline passes, or stop() is called.
+	 * @param startDepth the depth of the first iteration
+	 * @param maxDepth the deepest iteration to run
+	 * @param start when the move was started, in System.nanoTime() units
+	 * @param end when the search must give up, in System.nanoTime() units
+	 * @param main true for the search whose move will be played.  It always finishes its first
+	 * iteration, and does not start an iteration it is unlikely to finish.
+	 */
+	void think(int startDepth, int maxDepth, long start, long end, boolean main) {
+		bestMove = -1;
+		bestScore = 0;
+		completedDepth = 0;
+		deadline = end;
+		maxDepth = Math.min(maxDepth, cells - filled);
+		for (int depth = startDepth; depth <= maxDepth; depth++) {
+			mustFinish = main && completedDepth == 0;
+			aborted = false;
+			searchRoot(depth, bestMove);
+			if (aborted)
+				break;
+			completedDepth = depth;
+			bestMove = result[0];
+			bestScore = result[1];
+			// stop once the outcome is known, or if the next iteration can't finish in time
+			if (Math.abs(bestScore) >= MIN_WIN_SCORE)
+				break;
+			if (main && System.nanoTime() - start > (end - start) / 2)
+				break;
+		}
+	}
+
+	/**
+	 * Tells the search to give up as soon as it can.  May be called from any thread.
+	 */
+	void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Returns the best move of the deepest iteration that finished, or -1 if none did
+	 */
+	int getBestMove() {
+		return bestMove;
+	}
+
+	int getBestScore() {
+		return bestScore;
+	}
+
+	int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/**
+	 * Returns the EvaluationCache key of the position given to setPosition
+	 */
+	long getCacheKey() {
+		return EvaluationCache.key(board.getCanonicalHash(), board.getHeight(), board.getWidth(), board.getWinLength());
+	}
+
+	/**
+	 * Mirrors the given column if the position given to setPosition is on the other side of
+	 * the board from its canonical form.  Doing it twice gives back the same column, so it
+	 * converts columns both to and from the way they are stored under the canonical hash.
+	 */
+	int canonicalColumn(int col) {
+		return col >= 0 && board.getMirrorHash() < board.getHash() ? width - 1 - col : col;
+	}
+
+	long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Searches every move of the root position to the given depth.
+	 * @param depth the number of plies to search
+	 * @param firstMove the column to try first, or -1
+	 */
+	private void searchRoot(int depth, int firstMove) {
+		int alpha = -WIN_SCORE - 1;
+		int beta = WIN_SCORE + 1;
+		int move = -1;
+		for (int i = -1; i < order.length; i++) {
+			int col = i < 0 ? firstMove : order[i];
+			if (col < 0 || (i >= 0 && col == firstMove) || !board.canAddPiece(col))
+				continue;
+			int row = board.addPiece(col, rootPlayer);
+			filled++;
+			int score;
+			if (board.isWin(col, row)) {
+				score = WIN_SCORE - 1;
+			} else {
+				if (evaluator != null) {
+					evaluator.add(col, row, rootPlayer);
+				}
+				score = -negamax(depth - 1, -beta, -alpha, 3 - rootPlayer, 1);
+				if (evaluator != null) {
+					evaluator.remove(col, row, rootPlayer);
+				}
+			}
+			board.undo();
+			filled--;
+			if (aborted)
+				return;
+			if (score > alpha || move == -1) {
+				alpha = Math.max(alpha, score);
+				move = col;
+			}
+		}
+		result[0] = move;
+		result[1] = alpha;
+	}
+
+	/**
+	 * The recursive negamax search.  The position must not already be won by either player.
+	 */
+	private int negamax(int depth, int alpha, int beta, int player, int ply) {
+		nodes++;
+		if ((nodes & CHECK_INTERVAL) == 0 && outOfTime()) {
+			aborted = true;
+			return 0;
+		}
+		if (filled == cells)
+			return 0;
+		if (board.hasWinningMove(player))
+			return WIN_SCORE - ply - 1;
+		if (depth <= 0)
+			return evaluate(player);
+
+		// nobody can win before our next move, so no score can beat winning with it
+		int maxScore = WIN_SCORE - ply - 1;
+		if (beta > maxScore) {
+			beta = maxScore;
+			if (alpha >= beta)
+				return beta;
+		}
+
+		long hash = board.getCanonicalHash();
+		boolean mirrored = hash != board.getHash();
+		long entry = table.probe(hash);
+		int tableMove = -1;
+		if (entry != 0) {
+			tableMove = TranspositionTable.move(entry);
+			if (mirrored && tableMove >= 0) {
+				tableMove = width - 1 - tableMove;
+			}
+			if (TranspositionTable.depth(entry) >= depth) {
+				int score = fromTable(TranspositionTable.score(entry), ply);
+				int bound = TranspositionTable.bound(entry);
+				if (bound == TranspositionTable.EXACT
+						|| (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+						|| (bound == TranspositionTable.UPPER_BOUND && score <= alpha))
+					return score;
+			}
+		}
+
+		int originalAlpha = alpha;
+		int best = -WIN_SCORE - 1;
+		int bestMove = -1;
+		for (int i = -1; i < order.length; i++) {
+			int col = i < 0 ? tableMove : order[i];
+			if (col < 0 || (i >= 0 && col == tableMove) || !board.canAddPiece(col))
+				continue;
+			int row = board.addPiece(col, player);
+			filled++;
+			if (evaluator != null) {
+				evaluator.add(col, row, player);
+			}
+			int score = -negamax(depth - 1, -beta, -alpha, 3 - player, ply + 1);
+			if (evaluator != null) {
+				evaluator.remove(col, row, player);
+			}
+			board.undo();
+			filled--;
+			if (aborted)
+				return 0;
+			if (score > best) {
+				best = score;
+				bestMove = col;
+				if (score > alpha) {
+					alpha = score;
+					if (alpha >= beta)
+						break;
+				}
+			}
+		}
+		int bound = best <= originalAlpha ? TranspositionTable.UPPER_BOUND
+				: best >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+		if (mirrored) {
+			bestMove = width - 1 - bestMove;
+		}
+		table.store(hash, depth, bound, toTable(best, ply), bestMove);
+		return best;
+	}
+
+	/**
+	 * Win scores count plies from the root, but the table needs them to count plies from
+	 * the position itself, since it may be reached at another ply next time.
+	 */
+	private static int toTable(int score, int ply) {
+		if (score >= MIN_WIN_SCORE)
+			return score + ply;
+		if (score <= -MIN_WIN_SCORE)
+			return score - ply;
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score >= MIN_WIN_SCORE)
+			return score - ply;
+		if (score <= -MIN_WIN_SCORE)
+			return score + ply;
+		return score;
+	}
+
+	/**
+	 * The static evaluation, from the cache if it has it.  The player must be the one to
+	 * move, so the score depends only on the position.
+	 */
+	private int evaluate(int player) {
+		if (cache == null)
+			return computeEvaluation(player);
+		long key = EvaluationCache.key(board.getCanonicalHash() ^ evaluationKey, board.getHeight(), board.getWidth(),
+				board.getWinLength());
+		long entry = cache.getEvaluation(key);
+		if (entry != 0)
+			return TranspositionTable.score(entry);
+		int score = computeEvaluation(player);
+		cache.putEvaluation(key, score);
+		return score;
+	}
+
+	/**
+	 * The static evaluation: the LineEvaluator's if there is one, or else the difference in
+	 * the number of cells that would complete a winning run for each player.
+	 */
+	private int computeEvaluation(int player) {
+		if (evaluator != null)
+			return evaluator.evaluate(player);
+		return 16 * (board.getThreatCount(player) - board.getThreatCount(3 - player));
+	}
+
+	private boolean outOfTime() {
+		if (mustFinish)
+			return false;
+		return stopped || System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted();
+	}
+}
@@ -0,0 +1,210 @@
+package waldonsm.connect4.ai;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import waldonsm.connect4.metrics.Metrics;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4Models;
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * Wraps a NegamaxAI so that it can think on the opponent's time ("pondering").
+ * <P>
+ * While the opponent decides, ponder() searches the position after each of the opponent's
+ * possible moves just as chooseColumn() would, starting with the move the last search
+ * expected.  When the opponent moves and chooseColumn() is called for a position that was
+ * pondered (a "hit"), its move is played at once if its search finished.  If the search was
+ * cut short by the opponent's move, the position is searched again for the rest of the
+ * budget; the cut-short search leaves its results in the NegamaxAI's transposition table,
+ * which is kept between moves, so the search that follows gets to the same depth much
+ * faster.
+ * <P>
+ * Hits, misses and the time saved against the full budget are counted since the AI was
+ * made, and should be read on the thread that makes the AI's calls; the ponder.hits and
+ * ponder.misses metrics count them over every PonderingAI.  Like any Connect4AI this class
+ * is not thread safe; AsyncAIRunner makes all its calls, including ponder(), on one thread,
+ * and interrupts pondering when a move is needed.
+ */
+public class PonderingAI implements Connect4AI {
+
+	private static final LongAdder PONDER_HITS = Metrics.counter("ponder.hits");
+	private static final LongAdder PONDER_MISSES = Metrics.counter("ponder.misses");
+
+	private final NegamaxAI ai;
+	/**
+	 * Pondered positions, by their Zobrist hash
+	 */
+	private final Map<Long, Pondered> pondered = new HashMap<Long, Pondered>();
+	private MutableConnect4Model board;
+	private long hits;
+	private long misses;
+	private long savedNanos;
+
+	/**
+	 * Creates a new PonderingAI
+	 * @param ai the AI that chooses the moves
+	 */
+	public PonderingAI(NegamaxAI ai) {
+		this.ai = ai;
+	}
+
+	@Override
+	public int chooseColumn(Connect4Model model) {
+		long start = System.nanoTime();
+		long budget = ai.getTimeBudgetMillis() * 1000000L;
+		Pondered result = pondered.get(load(model).getHash());
+		// whatever the opponent did, the other pondered positions can't come up any more
+		pondered.clear();
+		if (result == null) {
+			misses++;
+			if (Metrics.ENABLED) {
+				PONDER_MISSES.increment();
+			}
+			return ai.chooseColumn(model);
+		}
+		hits++;
+		if (Metrics.ENABLED) {
+			PONDER_HITS.increment();
+		}
+		int col = result.move;
+		long remaining = budget - result.nanos;
+		if (!result.finished && remaining >= 1000000L) {
+			col = ai.chooseColumn(model, remaining / 1000000L);
+		}
+		savedNanos += Math.max(0, budget - (System.nanoTime() - start));
+		return col;
+	}
+
+	/**
+	 * Thinks about the opponent's possible moves until they have all been searched or the
+	 * thread is interrupted.  Each call forgets what the last one found.
+	 * @param model the board, with the opponent to move
+	 */
+	public void ponder(Connect4Model model) {
+		pondered.clear();
+		MutableConnect4Model b = load(model);
+		int opponent = b.getPieceCount(Connect4Model.PLAYER1_MARK) > b.getPieceCount(Connect4Model.PLAYER2_MARK)
+				? Connect4Model.PLAYER2_MARK : Connect4Model.PLAYER1_MARK;
+		int[] order = NegamaxSearch.centerFirstOrder(b.getWidth());
+		// the last search stored the reply it expected in the transposition table
+		long entry = ai.getTranspositionTable().probe(b.getCanonicalHash());
+		int expected = entry == 0 ? -1 : TranspositionTable.move(entry);
+		if (expected >= 0 && b.getMirrorHash() < b.getHash()) {
+			expected = b.getWidth() - 1 - expected;
+		}
+		if (expected >= 0) {
+			for (int i = 0; i < order.length; i++) {
+				if (order[i] == expected) {
+					System.arraycopy(order, 0, order, 1, i);
+					order[0] = expected;
+					break;
+				}
+			}
+		}
+
+		int[] moves = new int[order.length];
+		for (int i = 0; i < order.length && !Thread.currentThread().isInterrupted(); i++) {
+			int col = order[i];
+			if (!b.canAddPiece(col))
+				continue;
+			int row = b.addPiece(col, opponent);
+			// after a winning or last move there is nothing to answer
+			if (!b.isWin(col, row) && b.getAvailableMoves(moves) > 0) {
+				long key = b.getHash();
+				long start = System.nanoTime();
+				int move = ai.chooseColumn(b);
+				// an interrupted search stops early, without using its whole budget
+				boolean finished = !Thread.currentThread().isInterrupted();
+				pondered.put(key, new Pondered(move, System.nanoTime() - start, finished));
+			}
+			b.undo();
+		}
+	}
+
+	/**
+	 * Loads the model into the board used for hashing, making the board first if needed
+	 */
+	private MutableConnect4Model load(Connect4Model model) {
+		if (board == null || board.getWidth() != model.getWidth() || board.getHeight() != model.getHeight()
+				|| board.getWinLength() != model.getWinLength()) {
+			board = Connect4Models.newSearchModel(model.getHeight(), model.getWidth(), model.getWinLength());
+		}
+		board.load(model);
+		return board;
+	}
+
+	@Override
+	public void newGame() {
+		pondered.clear();
+		ai.newGame();
+	}
+
+	/**
+	 * Returns the AI that chooses the moves
+	 * @return the AI that chooses the moves
+	 */
+	public NegamaxAI getAI() {
+		return ai;
+	}
+
+	/**
+	 * Returns the number of moves chosen for positions that had been pondered
+	 * @return the number of ponder hits
+	 */
+	public long getPonderHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of moves chosen for positions that had not been pondered
+	 * @return the number of ponder misses
+	 */
+	public long getPonderMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of moves chosen for positions that had been pondered
+	 * @return the ponder hit rate, from 0 to 1
+	 */
+	public double getPonderHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the total time saved on ponder hits, compared with thinking for the full time
+	 * budget
+	 * @return the time saved, in nanoseconds
+	 */
+	public long getSavedNanos() {
+		return savedNanos;
+	}
+
+	/**
+	 * Returns the average time saved on each ponder hit
+	 * @return the average time saved per hit, in nanoseconds
+	 */
+	public double getAverageSavedNanos() {
+		return hits == 0 ? 0 : (double) savedNanos / hits;
+	}
+
+	/**
+	 * The result of pondering one position
+	 */
+	private static final class Pondered {
+
+		final int move;
+		final long nanos;
+		final boolean finished;
+
+		Pondered(int move, long nanos, boolean finished) {
+			this.move = move;
+			this.nanos = nanos;
+			this.finished = finished;
+		}
+	}
+}
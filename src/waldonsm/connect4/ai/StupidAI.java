@@ -1,17 +1,21 @@
 package waldonsm.connect4.ai;
 
-import java.util.List;
 import java.util.Random;
 
 import waldonsm.connect4.model.Connect4Model;
 
 public class StupidAI implements Connect4AI {
 
+	private final Random rand = new Random();
+	private int[] moves = new int[0];
+
 	@Override
 	public int chooseColumn(Connect4Model model) {
-		Random rand = new Random();
-		List<Integer> list = model.getAvailableMoves();
-		return list.get(rand.nextInt(list.size()));
+		if (moves.length < model.getWidth()) {
+			moves = new int[model.getWidth()];
+		}
+		int count = model.getAvailableMoves(moves);
+		return moves[rand.nextInt(count)];
 	}
 
 	@Override
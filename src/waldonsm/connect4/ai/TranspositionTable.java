@@ -0,0 +1,201 @@
+package waldonsm.connect4.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size hash table of search results, keyed by Zobrist hash.
+ * <P>
+ * The table is two parallel <code>long</code> arrays, one of keys and one of packed entries,
+ * so it creates no garbage and its size is known exactly.  Each key maps to exactly one slot.
+ * When two positions want the same slot the one searched deeper wins, except that entries
+ * left over from an earlier game (see <code>newGame()</code>) can always be replaced.
+ * <P>
+ * An entry packs the score in the low 32 bits, then 8 bits each of depth, bound type, best
+ * move and age.  A packed entry of 0 means nothing was found.
+ * <P>
+ * The table may be shared by searches on several threads without any locking.  The key
+ * array actually holds each key XORed with its entry, so if two threads write the same slot
+ * at once and the key of one ends up next to the entry of the other, the probe sees a key
+ * that doesn't match and treats the slot as a miss instead of returning the wrong entry.
+ */
+public final class TranspositionTable {
+
+	/**
+	 * The score is exact
+	 */
+	public static final int EXACT = 1;
+	/**
+	 * The score is a lower bound (the search failed high)
+	 */
+	public static final int LOWER_BOUND = 2;
+	/**
+	 * The score is an upper bound (the search failed low)
+	 */
+	public static final int UPPER_BOUND = 3;
+
+	/**
+	 * The number of bytes used by each slot
+	 */
+	public static final int BYTES_PER_ENTRY = 16;
+
+	private final long[] keys;
+	private final long[] entries;
+	private final int mask;
+	private volatile int age;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder collisions = new LongAdder();
+	private final LongAdder stores = new LongAdder();
+
+	/**
+	 * Creates a new table that uses at most the given number of megabytes.  The number of
+	 * slots is rounded down to a power of 2.
+	 * @param megabytes the most memory the table may use, in megabytes
+	 */
+	public TranspositionTable(int megabytes) {
+		if (megabytes <= 0)
+			throw new IllegalArgumentException("The table needs at least one megabyte");
+		long slots = Long.highestOneBit(megabytes * (1L << 20) / BYTES_PER_ENTRY);
+		// java arrays are indexed by int
+		slots = Math.min(slots, 1 << 30);
+		keys = new long[(int) slots];
+		entries = new long[(int) slots];
+		mask = (int) slots - 1;
+	}
+
+	/**
+	 * Looks up the given position
+	 * @param key the Zobrist hash of the position
+	 * @return the packed entry, or 0 if the position is not in the table
+	 */
+	public long probe(long key) {
+		int i = (int) key & mask;
+		long entry = entries[i];
+		if (entry != 0 && (keys[i] ^ entry) == key) {
+			hits.increment();
+			return entry;
+		}
+		if (entry != 0) {
+			collisions.increment();
+		}
+		misses.increment();
+		return 0;
+	}
+
+	/**
+	 * Stores a search result, unless the slot holds a deeper search of another position from
+	 * the current game
+	 * @param key the Zobrist hash of the position
+	 * @param depth the depth the position was searched to
+	 * @param bound one of EXACT, LOWER_BOUND or UPPER_BOUND
+	 * @param score the score of the position
+	 * @param move the best move found, or -1
+	 */
+	public void store(long key, int depth, int bound, int score, int move) {
+		int i = (int) key & mask;
+		long old = entries[i];
+		int currentAge = age;
+		if (old != 0 && (keys[i] ^ old) != key && age(old) == currentAge && depth(old) > depth)
+			return;
+		long entry = (score & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) bound << 40)
+				| ((long) ((move + 1) & 0xFF) << 48) | ((long) currentAge << 56);
+		keys[i] = key ^ entry;
+		entries[i] = entry;
+		stores.increment();
+	}
+
+	/**
+	 * Tells the table a new game has started.  Entries from older games stay in the table but
+	 * are replaced whenever their slot is needed.
+	 */
+	public void newGame() {
+		age = (age + 1) & 0xFF;
+	}
+
+	/**
+	 * Empties the table and resets the counters
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(entries, 0);
+		hits.reset();
+		misses.reset();
+		collisions.reset();
+		stores.reset();
+	}
+
+	/**
+	 * Returns the score part of a packed entry
+	 */
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * Returns the depth part of a packed entry
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> 32) & 0xFF;
+	}
+
+	/**
+	 * Returns the bound type of a packed entry: EXACT, LOWER_BOUND or UPPER_BOUND
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> 40) & 0xFF;
+	}
+
+	/**
+	 * Returns the best move of a packed entry, or -1 if there is none
+	 */
+	public static int move(long entry) {
+		return ((int) (entry >>> 48) & 0xFF) - 1;
+	}
+
+	private static int age(long entry) {
+		return (int) (entry >>> 56) & 0xFF;
+	}
+
+	/**
+	 * Returns the number of slots in the table
+	 * @return the number of slots in the table
+	 */
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the number of probes that found their position
+	 * @return the number of probes that found their position
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of probes that did not find their position
+	 * @return the number of probes that did not find their position
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of probes that found a different position in their slot.  These are
+	 * also counted as misses.
+	 * @return the number of probes that found a different position in their slot
+	 */
+	public long getCollisions() {
+		return collisions.sum();
+	}
+
+	/**
+	 * Returns the number of results stored
+	 * @return the number of results stored
+	 */
+	public long getStores() {
+		return stores.sum();
+	}
+}
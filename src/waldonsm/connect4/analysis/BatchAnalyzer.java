@@ -0,0 +1,399 @@
+package waldonsm.connect4.analysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4Models;
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * Scores every move of every position in a file, on as many threads as wanted, with no GUI.
+ * <P>
+ * The input is read as a stream, one position per line.  A position is the moves that lead
+ * to it, as 1-based column numbers: either one digit per move (<code>4453</code>) or, for
+ * boards wider than 9, numbers separated by commas (<code>4,4,10,3</code>).  Anything after
+ * the moves, following whitespace, is ignored, as are blank lines and lines starting with
+ * <code>#</code>.
+ * <P>
+ * Lines are handed to the worker threads through a bounded queue, so memory use does not
+ * grow with the size of the input.  Each worker replays its positions into one reusable
+ * board and scores them with its own PositionAnalyzer.  Every result is written as soon as
+ * it is done, so results are in the order they finished, not the order they were read.  Each
+ * is one tab-separated line holding the input line number, the moves, the best column
+ * (1-based) and the score of every column, with <code>-</code> for full columns.  Positions
+ * with an illegal move, or where the game is already over, are written with
+ * <code>invalid</code> in place of the best column and scores.
+ */
+public class BatchAnalyzer {
+
+	/**
+	 * The number of lines that may wait in the queue for each worker
+	 */
+	public static final int QUEUE_PER_THREAD = 64;
+
+	/**
+	 * Put on the queue once per worker to tell it that there are no more lines
+	 */
+	private static final Line END = new Line(0, null);
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final PositionAnalyzerFactory factory;
+
+	private final AtomicLong analyzed = new AtomicLong();
+	private final AtomicLong invalid = new AtomicLong();
+	private volatile long lastNanos;
+
+	/**
+	 * Creates a new batch analyzer for positions on a board of the given size
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @param factory makes an analyzer for each thread
+	 */
+	public BatchAnalyzer(int height, int width, int winLength, PositionAnalyzerFactory factory) {
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		this.factory = factory;
+	}
+
+	/**
+	 * Analyzes every position read from the input and writes the results to the output.
+	 * Returns when all the positions are done.  Neither stream is closed.  If anything goes
+	 * wrong, every worker is stopped and every result already made is written before giving
+	 * up.
+	 * @param input where to read positions from
+	 * @param output where to write the results
+	 * @param threads the number of positions to analyze at once
+	 * @throws IOException if reading or writing fails
+	 * @throws InterruptedIOException if the thread is interrupted, in which case not all the
+	 * positions are analyzed
+	 * @throws RuntimeException if an analyzer fails, for example because it can't analyze
+	 * positions on this board
+	 */
+	public void run(Reader input, Writer output, int threads) throws IOException {
+		long start = System.nanoTime();
+		analyzed.set(0);
+		invalid.set(0);
+		final BufferedWriter out = new BufferedWriter(output, 1 << 16);
+		final BlockingQueue<Line> queue = new ArrayBlockingQueue<Line>(threads * QUEUE_PER_THREAD);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						analyzeLines(queue, out);
+					} catch (InterruptedException ex) {
+						// stopped by the reader
+					} catch (Throwable ex) {
+						// an IOException writing, or the analyzer failing
+						synchronized (failure) {
+							failure[0] = ex;
+						}
+						// keep taking lines so the reader is never stuck on a full queue
+						drain(queue);
+					}
+				}
+			}, "Analysis " + i);
+			workers[i].start();
+		}
+
+		BufferedReader in = new BufferedReader(input, 1 << 16);
+		IOException readFailure = null;
+		boolean interrupted = false;
+		boolean finished = false;
+		try {
+			String text;
+			long number = 0;
+			while ((text = in.readLine()) != null) {
+				number++;
+				synchronized (failure) {
+					if (failure[0] != null)
+						break;
+				}
+				if (text.trim().isEmpty() || text.startsWith("#"))
+					continue;
+				queue.put(new Line(number, text));
+			}
+			for (int i = 0; i < threads; i++) {
+				queue.put(END);
+			}
+			finished = true;
+		} catch (IOException ex) {
+			readFailure = ex;
+		} catch (InterruptedException ex) {
+			interrupted = true;
+		} finally {
+			if (!finished) {
+				// the workers will never see END, so stop them
+				for (int i = 0; i < threads; i++) {
+					workers[i].interrupt();
+				}
+			}
+			// the workers are still writing results, so wait for them even if interrupted
+			for (int i = 0; i < threads; i++) {
+				while (workers[i].isAlive()) {
+					try {
+						workers[i].join();
+					} catch (InterruptedException ex) {
+						interrupted = true;
+					}
+				}
+			}
+		}
+
+		IOException flushFailure = null;
+		try {
+			synchronized (out) {
+				out.flush();
+			}
+		} catch (IOException ex) {
+			flushFailure = ex;
+		}
+		lastNanos = System.nanoTime() - start;
+		Throwable cause;
+		synchronized (failure) {
+			cause = failure[0];
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (cause instanceof IOException)
+			throw (IOException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause != null)
+			throw (Error) cause;
+		if (readFailure != null)
+			throw readFailure;
+		if (flushFailure != null)
+			throw flushFailure;
+		if (interrupted)
+			throw new InterruptedIOException("Interrupted before all the positions were analyzed");
+	}
+
+	/**
+	 * The loop run by each worker: takes lines from the queue until it finds END
+	 */
+	private void analyzeLines(BlockingQueue<Line> queue, BufferedWriter out) throws IOException, InterruptedException {
+		PositionAnalyzer analyzer = factory.createAnalyzer();
+		MutableConnect4Model board = Connect4Models.newSearchModel(height, width, winLength);
+		int[] scores = new int[width];
+		StringBuilder result = new StringBuilder();
+		Line line;
+		while ((line = queue.take()) != END) {
+			result.setLength(0);
+			result.append(line.number).append('\t');
+			String moves = moves(line.text);
+			result.append(moves).append('\t');
+			if (load(board, moves)) {
+				analyzer.analyze(board, scores);
+				int best = -1;
+				for (int col = 0; col < width; col++) {
+					if (scores[col] != PositionAnalyzer.NO_MOVE && (best == -1 || scores[col] > scores[best])) {
+						best = col;
+					}
+				}
+				result.append(best + 1);
+				for (int col = 0; col < width; col++) {
+					result.append(col == 0 ? '\t' : ' ');
+					if (scores[col] == PositionAnalyzer.NO_MOVE) {
+						result.append('-');
+					} else {
+						result.append(scores[col]);
+					}
+				}
+				analyzed.incrementAndGet();
+			} else {
+				result.append("invalid");
+				invalid.incrementAndGet();
+			}
+			result.append('\n');
+			synchronized (out) {
+				out.append(result);
+			}
+		}
+	}
+
+	private static void drain(BlockingQueue<Line> queue) {
+		try {
+			while (queue.take() != END) {
+				// throw it away
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the moves at the start of a line, up to the first whitespace
+	 */
+	private static String moves(String text) {
+		text = text.trim();
+		for (int i = 0; i < text.length(); i++) {
+			if (Character.isWhitespace(text.charAt(i)))
+				return text.substring(0, i);
+		}
+		return text;
+	}
+
+	/**
+	 * Replays the given moves on the board, from empty
+	 * @return false if a move is not a column, is into a full column, or comes after the
+	 * game is over, or if the board is full at the end
+	 */
+	private boolean load(MutableConnect4Model board, String moves) {
+		board.clear();
+		boolean commas = moves.indexOf(',') >= 0;
+		int mark = Connect4Model.PLAYER1_MARK;
+		int count = 0;
+		int i = 0;
+		while (i < moves.length()) {
+			int col;
+			if (commas) {
+				int end = moves.indexOf(',', i);
+				if (end < 0) {
+					end = moves.length();
+				}
+				try {
+					col = Integer.parseInt(moves.substring(i, end)) - 1;
+				} catch (NumberFormatException ex) {
+					return false;
+				}
+				i = end + 1;
+			} else {
+				col = moves.charAt(i++) - '1';
+			}
+			if (col < 0 || col >= width || !board.canAddPiece(col))
+				return false;
+			int row = board.addPiece(col, mark);
+			if (board.isWin(col, row))
+				return false;
+			mark = 3 - mark;
+			count++;
+		}
+		return count < width * height;
+	}
+
+	/**
+	 * Returns the number of positions analyzed by the last run
+	 * @return the number of positions analyzed
+	 */
+	public long getAnalyzed() {
+		return analyzed.get();
+	}
+
+	/**
+	 * Returns the number of positions the last run found invalid
+	 * @return the number of invalid positions
+	 */
+	public long getInvalid() {
+		return invalid.get();
+	}
+
+	/**
+	 * Returns how long the last run took
+	 * @return how long the last run took, in nanoseconds
+	 */
+	public long getLastNanos() {
+		return lastNanos;
+	}
+
+	/**
+	 * Returns the number of positions analyzed per second by the last run
+	 * @return the number of positions analyzed per second
+	 */
+	public double getPositionsPerSecond() {
+		return lastNanos == 0 ? 0 : analyzed.get() * 1e9 / lastNanos;
+	}
+
+	/**
+	 * Makes an analyzer factory from a short description: <code>solver</code> for a
+	 * SolverAnalyzer, or <code>negamax:N</code> for a SearchAnalyzer that searches for N
+	 * milliseconds after each move.
+	 * @param spec the description of the analyzer
+	 * @return a factory for the analyzer described
+	 */
+	public static PositionAnalyzerFactory parseAnalyzer(String spec) {
+		if (spec.equals("solver")) {
+			return new PositionAnalyzerFactory() {
+				public PositionAnalyzer createAnalyzer() {
+					return new SolverAnalyzer(16);
+				}
+			};
+		}
+		if (spec.startsWith("negamax")) {
+			final long millis = spec.startsWith("negamax:") ? Long.parseLong(spec.substring(8)) : 10;
+			return new PositionAnalyzerFactory() {
+				public PositionAnalyzer createAnalyzer() {
+					return new SearchAnalyzer(millis, 16);
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown analyzer: " + spec);
+	}
+
+	/**
+	 * Analyzes a file of positions from the command line.
+	 * <P>
+	 * Usage: <code>BatchAnalyzer input output analyzer [width height [threads [winLength]]]</code>,
+	 * where the analyzer is described as in parseAnalyzer, and <code>-</code> may be given
+	 * for standard input or output.
+	 * @param args the command line arguments
+	 * @throws IOException if a file can't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: BatchAnalyzer input output analyzer [width height [threads [winLength]]]");
+			System.exit(1);
+		}
+		int width = args.length > 4 ? Integer.parseInt(args[3]) : 7;
+		int height = args.length > 4 ? Integer.parseInt(args[4]) : 6;
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		int winLength = args.length > 6 ? Integer.parseInt(args[6]) : Connect4Model.DEFAULT_WIN_LENGTH;
+
+		BatchAnalyzer analyzer = new BatchAnalyzer(height, width, winLength, parseAnalyzer(args[2]));
+		Reader in = new InputStreamReader(args[0].equals("-") ? System.in : new FileInputStream(args[0]), StandardCharsets.UTF_8);
+		try {
+			Writer out = new OutputStreamWriter(args[1].equals("-") ? System.out : new FileOutputStream(args[1]), StandardCharsets.UTF_8);
+			try {
+				analyzer.run(in, out, threads);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		System.err.printf("%d positions (%d invalid) in %.1f s (%.0f positions/s)%n", analyzer.getAnalyzed(),
+				analyzer.getInvalid(), analyzer.getLastNanos() / 1e9, analyzer.getPositionsPerSecond());
+	}
+
+	/**
+	 * A line of input and its line number
+	 */
+	private static class Line {
+		final long number;
+		final String text;
+
+		Line(long number, String text) {
+			this.number = number;
+			this.text = text;
+		}
+	}
+}
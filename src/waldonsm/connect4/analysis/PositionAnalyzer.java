@@ -0,0 +1,25 @@
+package waldonsm.connect4.analysis;
+
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * Scores every move of a position.  Analyzers keep state between positions (tables, search
+ * trees) and are not thread safe, so a BatchAnalyzer makes one for each of its threads with
+ * a PositionAnalyzerFactory.
+ */
+public interface PositionAnalyzer {
+
+	/**
+	 * The score given to a full column
+	 */
+	public static final int NO_MOVE = Integer.MIN_VALUE;
+
+	/**
+	 * Scores every column of the given position for the player to move.  Higher scores are
+	 * better; what the numbers mean depends on the analyzer.  The position may be changed
+	 * while it is analyzed, but must be as it was when this returns.
+	 * @param position the position, which must not already be won or full
+	 * @param scores filled with the score of each column, or NO_MOVE for full columns
+	 */
+	public void analyze(MutableConnect4Model position, int[] scores);
+}
@@ -0,0 +1,13 @@
+package waldonsm.connect4.analysis;
+
+/**
+ * Creates new PositionAnalyzers, one for each thread that analyzes positions.
+ */
+public interface PositionAnalyzerFactory {
+
+	/**
+	 * Creates a new analyzer
+	 * @return the new analyzer
+	 */
+	PositionAnalyzer createAnalyzer();
+}
@@ -0,0 +1,82 @@
+package waldonsm.connect4.analysis;
+
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * Scores moves by playing each one and searching the position after it with a NegamaxAI for
+ * a fixed time.  Scores are NegamaxAI scores: a proven win is <code>NegamaxAI.WIN_SCORE</code>
+ * less the number of plies to the win, counting the move scored, and anything smaller than
+ * <code>NegamaxAI.MIN_WIN_SCORE</code> is an estimate.
+ * <P>
+ * Any board size and win length can be analyzed.  The AI's transposition table is kept from
+ * one position to the next, which helps when the positions come from the same games.
+ */
+public class SearchAnalyzer implements PositionAnalyzer {
+
+	private final NegamaxAI ai;
+	private final long millisPerMove;
+
+	/**
+	 * Creates a new analyzer
+	 * @param millisPerMove how long to search after each move, in milliseconds
+	 * @param tableMegabytes the size of the AI's transposition table, in megabytes
+	 */
+	public SearchAnalyzer(long millisPerMove, int tableMegabytes) {
+		this(new NegamaxAI(millisPerMove, tableMegabytes), millisPerMove);
+	}
+
+	/**
+	 * Creates a new analyzer that searches with the given AI, which must not be used by
+	 * anything else at the same time
+	 * @param ai the AI
+	 * @param millisPerMove how long to search after each move, in milliseconds
+	 */
+	public SearchAnalyzer(NegamaxAI ai, long millisPerMove) {
+		this.ai = ai;
+		this.millisPerMove = millisPerMove;
+	}
+
+	public void analyze(MutableConnect4Model position, int[] scores) {
+		int mark = position.getPieceCount(Connect4Model.PLAYER1_MARK) > position.getPieceCount(Connect4Model.PLAYER2_MARK)
+				? Connect4Model.PLAYER2_MARK : Connect4Model.PLAYER1_MARK;
+		int empty = position.getWidth() * position.getHeight() - position.getPieceCount(Connect4Model.PLAYER1_MARK)
+				- position.getPieceCount(Connect4Model.PLAYER2_MARK);
+		for (int col = 0; col < position.getWidth(); col++) {
+			if (!position.canAddPiece(col)) {
+				scores[col] = NO_MOVE;
+				continue;
+			}
+			int row = position.addPiece(col, mark);
+			if (position.isWin(col, row)) {
+				scores[col] = NegamaxAI.WIN_SCORE - 1;
+			} else if (empty == 1) {
+				scores[col] = 0;
+			} else {
+				ai.chooseColumn(position, millisPerMove);
+				scores[col] = -further(ai.getLastScore());
+			}
+			position.undo();
+		}
+	}
+
+	/**
+	 * Moves a win or loss one ply further away, for the move that led to it
+	 */
+	private static int further(int score) {
+		if (score >= NegamaxAI.MIN_WIN_SCORE)
+			return score - 1;
+		if (score <= -NegamaxAI.MIN_WIN_SCORE)
+			return score + 1;
+		return score;
+	}
+
+	/**
+	 * Returns the AI that does the searching
+	 * @return the AI that does the searching
+	 */
+	public NegamaxAI getAI() {
+		return ai;
+	}
+}
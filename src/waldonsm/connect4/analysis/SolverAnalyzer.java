@@ -0,0 +1,36 @@
+package waldonsm.connect4.analysis;
+
+import waldonsm.connect4.ai.Connect4Solver;
+import waldonsm.connect4.model.MutableConnect4Model;
+
+/**
+ * Scores moves exactly with a Connect4Solver.  Scores are the solver's: positive for a win,
+ * negative for a loss and 0 for a draw, larger the sooner the win (see Connect4Solver).
+ * <P>
+ * Only standard connect 4 on boards that fit in a bitboard can be analyzed, and positions
+ * with many empty cells can take a very long time.
+ */
+public class SolverAnalyzer implements PositionAnalyzer {
+
+	private final int tableMegabytes;
+	private Connect4Solver solver;
+
+	/**
+	 * Creates a new analyzer whose solver uses a table of the given size
+	 * @param tableMegabytes the size of the solver's transposition table, in megabytes
+	 */
+	public SolverAnalyzer(int tableMegabytes) {
+		this.tableMegabytes = tableMegabytes;
+	}
+
+	public void analyze(MutableConnect4Model position, int[] scores) {
+		if (solver == null || !solver.canSolve(position)) {
+			if (!Connect4Solver.fits(position))
+				throw new IllegalArgumentException("The solver can't analyze a " + position.getWidth() + "x"
+						+ position.getHeight() + " board with a win length of " + position.getWinLength());
+			solver = new Connect4Solver(position.getHeight(), position.getWidth(), tableMegabytes);
+		}
+		int[] solved = solver.analyze(position);
+		System.arraycopy(solved, 0, scores, 0, solved.length);
+	}
+}
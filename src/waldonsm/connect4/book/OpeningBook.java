@@ -0,0 +1,236 @@
+package waldonsm.connect4.book;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import waldonsm.connect4.model.BitboardConnect4Model;
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * A read-only opening book: the best move for each position near the start of the game,
+ * worked out ahead of time by OpeningBookGenerator.
+ * <P>
+ * The book file is memory-mapped rather than read, so opening a book is instant, the book
+ * takes no room on the heap, and every JVM on a machine that opens the same book shares one
+ * copy of it through the operating system's page cache.  Looking up a position is a binary
+ * search over the file.
+ * <P>
+ * Positions are keyed by their exact bit pattern, so lookups can never return the move for
+ * the wrong position.  A position and its mirror image share one entry: the key is the
+ * smaller of the two keys, and the stored move is flipped when the mirror image is looked up.
+ * <P>
+ * The file is a 12 byte header (<code>C4BK</code>, a version byte, the board width, height
+ * and win length as bytes, and the number of entries as an int) followed by the
+ * entries, sorted by key.  Each entry is the key as a long, the score as a short, the move as
+ * a byte and a flags byte.  Everything is big-endian.
+ */
+public final class OpeningBook {
+
+	/**
+	 * The first bytes of a book file
+	 */
+	public static final byte[] MAGIC = {'C', '4', 'B', 'K'};
+	/**
+	 * The version of the file format
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The size of the header, in bytes
+	 */
+	static final int HEADER_SIZE = 12;
+	/**
+	 * The size of each entry, in bytes
+	 */
+	static final int ENTRY_SIZE = 12;
+
+	/**
+	 * Set in an entry's flags if its score is a proven result rather than an estimate
+	 */
+	public static final int FLAG_PROVEN = 1;
+
+	/**
+	 * Book scores above this are proven wins, in <code>PROVEN_WIN - score + 1</code> plies,
+	 * and scores below minus this are proven losses
+	 */
+	public static final int PROVEN_SCORE = 30000;
+	/**
+	 * The book score of a win on the very next move
+	 */
+	public static final int PROVEN_WIN = 32000;
+
+	private final MappedByteBuffer buffer;
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final int size;
+
+	private OpeningBook(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.get(i) != MAGIC[i])
+				throw new IOException("Not an opening book");
+		}
+		if (buffer.get(4) != VERSION)
+			throw new IOException("Unsupported opening book version " + buffer.get(4));
+		width = buffer.get(5);
+		height = buffer.get(6);
+		winLength = buffer.get(7);
+		if (width <= 0 || height <= 0 || winLength <= 0)
+			throw new IOException("Opening book has a bad board size");
+		size = buffer.getInt(8);
+		if (buffer.capacity() < HEADER_SIZE + (long) size * ENTRY_SIZE)
+			throw new IOException("Opening book is truncated");
+	}
+
+	/**
+	 * Opens the given book file by memory-mapping it
+	 * @param file the book file
+	 * @return the opening book
+	 * @throws IOException if the file can't be read or is not an opening book
+	 */
+	public static OpeningBook open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the key of the given position: one bit for each of player 1's pieces, plus a
+	 * bit just above the top piece of each column.  No two positions have the same key.
+	 * @param board the position
+	 * @return the key of the position
+	 */
+	public static long key(BitboardConnect4Model board) {
+		long bottom = 0;
+		int stride = board.getHeight() + 1;
+		for (int i = 0; i < board.getWidth(); i++) {
+			bottom |= 1L << (i * stride);
+		}
+		return board.getBoard(Connect4Model.PLAYER1_MARK) + board.getOccupied() + bottom;
+	}
+
+	/**
+	 * Returns the key of the mirror image of a position, given the position's own key
+	 * @param key the key of the position
+	 * @param width the width of the board
+	 * @param height the height of the board
+	 * @return the key of the mirror image of the position
+	 */
+	public static long mirrorKey(long key, int width, int height) {
+		int stride = height + 1;
+		long column = (1L << stride) - 1;
+		long mirror = 0;
+		for (int i = 0; i < width; i++) {
+			mirror |= ((key >>> (i * stride)) & column) << ((width - 1 - i) * stride);
+		}
+		return mirror;
+	}
+
+	/**
+	 * Looks up the given position
+	 * @param board the position
+	 * @return the index of the position's entry, or -1 if it is not in the book.  If the
+	 * position is stored as its mirror image the index is returned as <code>-2 - index</code>.
+	 */
+	private int find(BitboardConnect4Model board) {
+		long key = key(board);
+		long mirror = mirrorKey(key, width, height);
+		int index = search(Math.min(key, mirror));
+		if (index < 0 || mirror >= key)
+			return index;
+		return -2 - index;
+	}
+
+	/**
+	 * Binary search for the given key
+	 * @return the index of the entry with the key, or -1
+	 */
+	private int search(long key) {
+		int lo = 0;
+		int hi = size - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			long k = buffer.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+			if (k < key) {
+				lo = mid + 1;
+			} else if (k > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the book move for the given position
+	 * @param board the position, which must be the same size as the book's board
+	 * @return the column to play, or -1 if the position is not in the book
+	 */
+	public int getMove(BitboardConnect4Model board) {
+		int index = find(board);
+		if (index == -1)
+			return -1;
+		if (index < -1)
+			return width - 1 - buffer.get(HEADER_SIZE + (-2 - index) * ENTRY_SIZE + 10);
+		return buffer.get(HEADER_SIZE + index * ENTRY_SIZE + 10);
+	}
+
+	/**
+	 * Returns the book score of the given position, from the point of view of the player to
+	 * move.  See PROVEN_SCORE for how wins and losses are scored.
+	 * @param board the position, which must be the same size as the book's board
+	 * @return the score, or 0 if the position is not in the book
+	 */
+	public int getScore(BitboardConnect4Model board) {
+		int index = find(board);
+		if (index == -1)
+			return 0;
+		if (index < -1) {
+			index = -2 - index;
+		}
+		return buffer.getShort(HEADER_SIZE + index * ENTRY_SIZE + 8);
+	}
+
+	/**
+	 * Returns the width of the board the book is for
+	 * @return the width of the board the book is for
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the board the book is for
+	 * @return the height of the board the book is for
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win in the games the book is for
+	 * @return the win length of the book's games
+	 */
+	public int getWinLength() {
+		return winLength;
+	}
+
+	/**
+	 * Returns the number of positions in the book
+	 * @return the number of positions in the book
+	 */
+	public int size() {
+		return size;
+	}
+}
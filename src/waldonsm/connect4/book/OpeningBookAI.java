@@ -0,0 +1,66 @@
+package waldonsm.connect4.book;
+
+import waldonsm.connect4.ai.Connect4AI;
+import waldonsm.connect4.model.BitboardConnect4Model;
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * An AI that plays straight from an opening book while the game is still in the book, and
+ * asks another AI once it is not.
+ */
+public class OpeningBookAI implements Connect4AI {
+
+	private final OpeningBook book;
+	private final Connect4AI fallback;
+	private final BitboardConnect4Model board;
+
+	private long bookMoves;
+	private long fallbackMoves;
+
+	/**
+	 * Creates a new OpeningBookAI
+	 * @param book the opening book
+	 * @param fallback the AI that chooses moves that aren't in the book
+	 */
+	public OpeningBookAI(OpeningBook book, Connect4AI fallback) {
+		this.book = book;
+		this.fallback = fallback;
+		board = new BitboardConnect4Model(book.getHeight(), book.getWidth(), book.getWinLength());
+	}
+
+	@Override
+	public int chooseColumn(Connect4Model model) {
+		if (model.getWidth() == book.getWidth() && model.getHeight() == book.getHeight()
+				&& model.getWinLength() == book.getWinLength()) {
+			board.load(model);
+			int col = book.getMove(board);
+			if (col >= 0 && board.canAddPiece(col)) {
+				bookMoves++;
+				return col;
+			}
+		}
+		fallbackMoves++;
+		return fallback.chooseColumn(model);
+	}
+
+	@Override
+	public void newGame() {
+		fallback.newGame();
+	}
+
+	/**
+	 * Returns the number of moves played from the book
+	 * @return the number of moves played from the book
+	 */
+	public long getBookMoves() {
+		return bookMoves;
+	}
+
+	/**
+	 * Returns the number of moves chosen by the fallback AI
+	 * @return the number of moves chosen by the fallback AI
+	 */
+	public long getFallbackMoves() {
+		return fallbackMoves;
+	}
+}
@@ -0,0 +1,250 @@
+package waldonsm.connect4.book;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import waldonsm.connect4.ai.Connect4Solver;
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.model.BitboardConnect4Model;
+import waldonsm.connect4.model.Connect4Model;
+
+/**
+ * Builds an opening book file offline.
+ * <P>
+ * Every position that can come up in the first few plies of a game is found (counting a
+ * position and its mirror image once), and the best move and score of each are written to a
+ * book file that OpeningBook can read.  Positions are worked on in parallel.
+ * <P>
+ * For standard connect 4 each position is solved exactly with a Connect4Solver, so the book
+ * plays perfectly: every entry is proven, and holds the quickest win, or a draw, or the
+ * slowest loss.  Solving positions near the start of a 7x6 game takes a long time.  Other
+ * games, which the solver can't play, are searched with a NegamaxAI for a fixed time
+ * instead; given enough time the searches reach the end of the game and those entries are
+ * proven too.
+ */
+public class OpeningBookGenerator {
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final int plies;
+	private final long millisPerPosition;
+
+	/**
+	 * Creates a new generator
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param plies positions with fewer than this many pieces are put in the book
+	 * @param millisPerPosition how long to search each position, in milliseconds, if the
+	 * game is not standard connect 4 so positions can't be solved
+	 */
+	public OpeningBookGenerator(int height, int width, int plies, long millisPerPosition) {
+		this(height, width, Connect4Model.DEFAULT_WIN_LENGTH, plies, millisPerPosition);
+	}
+
+	/**
+	 * Creates a new generator for games with the given win length
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @param plies positions with fewer than this many pieces are put in the book
+	 * @param millisPerPosition how long to search each position, in milliseconds, if the
+	 * game is not standard connect 4 so positions can't be solved
+	 */
+	public OpeningBookGenerator(int height, int width, int winLength, int plies, long millisPerPosition) {
+		if (!BitboardConnect4Model.fits(height, width))
+			throw new IllegalArgumentException("A " + width + "x" + height + " board does not fit in a bitboard");
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		this.plies = plies;
+		this.millisPerPosition = millisPerPosition;
+	}
+
+	/**
+	 * Finds, solves or searches, and writes out every book position
+	 * @param file the book file to write
+	 * @param threads the number of positions to work on at once
+	 * @throws IOException if the file can't be written
+	 * @throws InterruptedException if interrupted while waiting for the searches
+	 * @throws RuntimeException if a position can't be solved or searched, in which case no
+	 * book is written
+	 */
+	public void generate(File file, int threads) throws IOException, InterruptedException {
+		final List<int[]> positions = new ArrayList<int[]>();
+		BitboardConnect4Model start = new BitboardConnect4Model(height, width, winLength);
+		final boolean exact = Connect4Solver.fits(start);
+		findPositions(start, new int[plies], 0, new HashSet<Long>(), positions);
+
+		final long[] keys = new long[positions.size()];
+		final short[] scores = new short[positions.size()];
+		final byte[] moves = new byte[positions.size()];
+		final byte[] flags = new byte[positions.size()];
+		final ThreadLocal<Connect4Solver> solvers = new ThreadLocal<Connect4Solver>() {
+			protected Connect4Solver initialValue() {
+				return new Connect4Solver(height, width, 16);
+			}
+		};
+		final ThreadLocal<NegamaxAI> ais = new ThreadLocal<NegamaxAI>() {
+			protected NegamaxAI initialValue() {
+				return new NegamaxAI(millisPerPosition, 16);
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> done = new ArrayList<Future<?>>();
+			for (int i = 0; i < positions.size(); i++) {
+				final int index = i;
+				done.add(executor.submit(new Runnable() {
+					public void run() {
+						solve(positions.get(index), exact ? solvers.get() : null, exact ? null : ais.get(), index, keys,
+								scores, moves, flags);
+					}
+				}));
+			}
+			// a position that failed would be left out of the book, so give up on the whole book
+			for (Future<?> position : done) {
+				try {
+					position.get();
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof Error)
+						throw (Error) ex.getCause();
+					throw (RuntimeException) ex.getCause();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(keys[a], keys[b]);
+			}
+		});
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.write(OpeningBook.MAGIC);
+			out.writeByte(OpeningBook.VERSION);
+			out.writeByte(width);
+			out.writeByte(height);
+			out.writeByte(winLength);
+			out.writeInt(keys.length);
+			for (int i : order) {
+				out.writeLong(keys[i]);
+				out.writeShort(scores[i]);
+				out.writeByte(moves[i]);
+				out.writeByte(flags[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Walks the game tree to the book depth, collecting the moves that lead to each
+	 * position not already seen (as itself or as its mirror image)
+	 */
+	private void findPositions(BitboardConnect4Model board, int[] line, int ply, Set<Long> seen, List<int[]> positions) {
+		long key = OpeningBook.key(board);
+		if (!seen.add(Math.min(key, OpeningBook.mirrorKey(key, width, height))))
+			return;
+		positions.add(Arrays.copyOf(line, ply));
+		if (ply + 1 >= plies)
+			return;
+		int mark = ply % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK;
+		for (int col = 0; col < width; col++) {
+			if (!board.canAddPiece(col))
+				continue;
+			int row = board.addPiece(col, mark);
+			// the game is over after a winning move, so there's nothing to look up
+			if (!board.isWin(col, row)) {
+				line[ply] = col;
+				findPositions(board, line, ply + 1, seen, positions);
+			}
+			board.undo();
+		}
+	}
+
+	/**
+	 * Solves or searches one position and fills in its entry, stored under the smaller of its
+	 * own key and its mirror image's key
+	 * @param solver the solver to use, or null to search with the AI
+	 */
+	private void solve(int[] line, Connect4Solver solver, NegamaxAI ai, int index, long[] keys, short[] scores,
+			byte[] moves, byte[] flags) {
+		BitboardConnect4Model board = new BitboardConnect4Model(height, width, winLength);
+		for (int i = 0; i < line.length; i++) {
+			board.addPiece(line[i], i % 2 == 0 ? Connect4Model.PLAYER1_MARK : Connect4Model.PLAYER2_MARK);
+		}
+		int move;
+		int score;
+		if (solver != null) {
+			int[] solved = solver.analyze(board);
+			move = solver.getBestMove(solved);
+			// turn the solver's score into a search score, so both are stored the same way
+			int plies = solver.getPliesToEnd(solved[move], line.length);
+			score = solved[move] > 0 ? NegamaxAI.WIN_SCORE - plies : solved[move] < 0 ? -(NegamaxAI.WIN_SCORE - plies) : 0;
+			flags[index] = OpeningBook.FLAG_PROVEN;
+		} else {
+			move = ai.chooseColumn(board);
+			score = ai.getLastScore();
+		}
+
+		long key = OpeningBook.key(board);
+		long mirror = OpeningBook.mirrorKey(key, width, height);
+		keys[index] = Math.min(key, mirror);
+		moves[index] = (byte) (mirror < key ? width - 1 - move : move);
+		if (score >= NegamaxAI.MIN_WIN_SCORE) {
+			scores[index] = (short) (OpeningBook.PROVEN_WIN - (NegamaxAI.WIN_SCORE - score) + 1);
+			flags[index] = OpeningBook.FLAG_PROVEN;
+		} else if (score <= -NegamaxAI.MIN_WIN_SCORE) {
+			scores[index] = (short) -(OpeningBook.PROVEN_WIN - (NegamaxAI.WIN_SCORE + score) + 1);
+			flags[index] = OpeningBook.FLAG_PROVEN;
+		} else {
+			scores[index] = (short) Math.max(-OpeningBook.PROVEN_SCORE, Math.min(OpeningBook.PROVEN_SCORE, score));
+		}
+	}
+
+	/**
+	 * Generates an opening book from the command line.
+	 * <P>
+	 * Usage: <code>OpeningBookGenerator file plies [millisPerPosition [width height [threads [winLength]]]]</code>
+	 * @param args the command line arguments
+	 * @throws Exception if the book can't be generated
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: OpeningBookGenerator file plies [millisPerPosition [width height [threads [winLength]]]]");
+			System.exit(1);
+		}
+		int plies = Integer.parseInt(args[1]);
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+		int width = args.length > 4 ? Integer.parseInt(args[3]) : 7;
+		int height = args.length > 4 ? Integer.parseInt(args[4]) : 6;
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		int winLength = args.length > 6 ? Integer.parseInt(args[6]) : Connect4Model.DEFAULT_WIN_LENGTH;
+
+		long start = System.nanoTime();
+		new OpeningBookGenerator(height, width, winLength, plies, millis).generate(new File(args[0]), threads);
+		OpeningBook book = OpeningBook.open(new File(args[0]));
+		System.out.printf("%d positions in %.1f s%n", book.size(), (System.nanoTime() - start) / 1e9);
+	}
+}
@@ -4,27 +4,41 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
+import waldonsm.connect4.ai.AsyncAIRunner;
 import waldonsm.connect4.ai.Connect4AI;
 import waldonsm.connect4.gui.animation.Animation;
 import waldonsm.connect4.gui.animation.AnimationDoneListener;
-import waldonsm.connect4.gui.animation.AnimationRunner;
+import waldonsm.connect4.gui.animation.AnimationScheduler;
 import waldonsm.connect4.gui.animation.FallingBallAnimation;
+import waldonsm.connect4.metrics.LatencyHistogram;
+import waldonsm.connect4.metrics.Metrics;
 import waldonsm.connect4.model.Connect4Model;
 import waldonsm.connect4.model.Connect4ModelImpl;
 
 /**
  * The code for the Connect 4 JPanel.  
+ * <P>
+ * Only the parts of the panel that change are repainted: the hover piece when it moves to
+ * another column, the area a falling piece sweeps through, and the cell a piece lands in.
+ * Painting then only draws what lies in the clip.  The empty grid never changes, so it is
+ * kept in a VolatileImage, which can live in video memory, and the pieces that have landed
+ * are drawn straight from a small array rather than from a full-board image.  Every piece,
+ * landed, hovering or falling, is copied from an anti-aliased sprite (see PieceSprites)
+ * instead of being filled in again.
  * @author Shawn Waldon
  *
  */
@@ -35,6 +49,8 @@ public class Connect4Panel extends JPanel {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	private static final LatencyHistogram PAINT_TIME = Metrics.histogram("gui.paint");
+
 	/**
 	 * The color for Player 1 (human)'s pieces
 	 */
@@ -64,15 +80,34 @@ public class Connect4Panel extends JPanel {
 	 */
 	public static final int COMPUTER_PLAYER_WIN = 2;
 
+	/**
+	 * The height of the strip above the board where the hover piece is drawn
+	 */
+	private static final int DROP_REGION_HEIGHT = 60;
+
 	private final Connect4ModelImpl model;
-	private final BufferedImage drawingBuffer;
-	private final Raster defaultRaster;
+	/**
+	 * The empty grid, drawn once and then copied to the screen.  Null until first painted,
+	 * and made again if its contents are lost.
+	 */
+	private VolatileImage gridImage;
+	/**
+	 * The player mark of every piece that has finished falling, as <code>stones[col][row]</code>
+	 */
+	private final int[][] stones;
 	private boolean gameWon = false;
-	private final Connect4AI aiBot;
-	private Animation anim;
+	private final AsyncAIRunner aiRunner;
+	/**
+	 * The computer's move being worked on in the background, or null
+	 */
+	private CompletableFuture<Integer> pendingMove;
+	/**
+	 * Runs the falling pieces.  Several can be falling at once.
+	 */
+	private final AnimationScheduler animations;
 	private int xForTempPiece = -1;
 	private int winner = WINNER_GAME_IN_PROGRESS;
-	private final AtomicBoolean canClick;
+	private boolean canClick;
 
 	/**
 	 * Creates a new Connect4Panel, with the given number of rows, columns, allowing either the
@@ -83,15 +118,27 @@ public class Connect4Panel extends JPanel {
 	 * @param ai the ai bot for the game
 	 */
 	public Connect4Panel(int cols, int rows, boolean playerTurnFirst, Connect4AI ai){
-		model = new Connect4ModelImpl(rows, cols);
-		aiBot = ai;
+		this(cols, rows, Connect4Model.DEFAULT_WIN_LENGTH, playerTurnFirst, ai);
+	}
+
+	/**
+	 * Creates a new Connect4Panel, with the given number of rows, columns and pieces in a row
+	 * needed to win, allowing either the player or computer to go first.
+	 * @param cols the number of columns
+	 * @param rows the number of rows
+	 * @param winLength the number of pieces in a row needed to win
+	 * @param playerTurnFirst true if the human player goes first
+	 * @param ai the ai bot for the game
+	 */
+	public Connect4Panel(int cols, int rows, int winLength, boolean playerTurnFirst, Connect4AI ai){
+		model = new Connect4ModelImpl(rows, cols, winLength);
+		aiRunner = new AsyncAIRunner(ai);
 		Dimension dim = new Dimension(cols * 50, rows * 50 + 60);
-		canClick = new AtomicBoolean(playerTurnFirst);
+		animations = new AnimationScheduler(this);
+		canClick = playerTurnFirst;
 		setPreferredSize(dim);
 		setSize(dim);
-		drawingBuffer = new BufferedImage(cols * 50, rows * 50, BufferedImage.TYPE_4BYTE_ABGR);
-		drawGrid(cols, rows, drawingBuffer.createGraphics());
-		defaultRaster = drawingBuffer.getData();
+		stones = new int[cols][rows];
 		MouseAdapter adapter = new Connect4MouseHandler();
 		addMouseListener(adapter);
 		addMouseMotionListener(adapter);
@@ -108,19 +155,105 @@ public class Connect4Panel extends JPanel {
 	}
 
 	/**
-	 * Paints the component.... most drawing stored in the BufferedImage as a buffer... duh
+	 * Paints the component.  Only the area inside the clip is drawn.
 	 */
 	public void paintComponent(Graphics g) {
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
 		super.paintComponent(g);
 		Graphics2D g2 = (Graphics2D) g;
-		if (xForTempPiece != -1) {
-			g2.setColor(PLAYER1_COLOR);
-			g2.fillOval(xForTempPiece, 5, PIECE_SIZE, PIECE_SIZE);
+		Rectangle clip = g2.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
 		}
-		g2.drawImage(drawingBuffer, 0, 60, this);
-		if (anim != null) {
-			anim.draw(g2);
+		if (xForTempPiece != -1 && clip.intersects(hoverBounds(xForTempPiece))) {
+			PieceSprites.drawPiece(g2, PLAYER1_COLOR, xForTempPiece, 5);
 		}
+		paintGrid(g2, clip);
+		paintStones(g2, clip);
+		animations.draw(g2);
+		if (Metrics.ENABLED) {
+			PAINT_TIME.recordSince(start);
+		}
+	}
+
+	/**
+	 * Copies the part of the grid inside the clip to the screen, drawing the grid again first
+	 * if the image was lost.  If no VolatileImage can be made (the panel is not on screen, or
+	 * there is no screen) the grid is drawn directly instead.
+	 */
+	private void paintGrid(Graphics2D g, Rectangle clip) {
+		int cols = model.getWidth();
+		int rows = model.getHeight();
+		Rectangle area = clip.intersection(new Rectangle(0, DROP_REGION_HEIGHT, cols * 50, rows * 50));
+		if (area.isEmpty())
+			return;
+		do {
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			int state = gridImage == null ? VolatileImage.IMAGE_INCOMPATIBLE : gridImage.validate(gc);
+			if (state == VolatileImage.IMAGE_INCOMPATIBLE) {
+				gridImage = gc != null ? gc.createCompatibleVolatileImage(cols * 50, rows * 50) : createVolatileImage(cols * 50, rows * 50);
+				if (gridImage == null) {
+					Graphics2D direct = (Graphics2D) g.create();
+					direct.clip(area);
+					direct.translate(0, DROP_REGION_HEIGHT);
+					drawGrid(cols, rows, direct);
+					direct.dispose();
+					return;
+				}
+				state = VolatileImage.IMAGE_RESTORED;
+			}
+			if (state == VolatileImage.IMAGE_RESTORED) {
+				renderGrid();
+			}
+			int sy = area.y - DROP_REGION_HEIGHT;
+			g.drawImage(gridImage, area.x, area.y, area.x + area.width, area.y + area.height,
+					area.x, sy, area.x + area.width, sy + area.height, null);
+		} while (gridImage.contentsLost());
+	}
+
+	private void renderGrid() {
+		Graphics2D g = gridImage.createGraphics();
+		g.setColor(getBackground());
+		g.fillRect(0, 0, gridImage.getWidth(), gridImage.getHeight());
+		drawGrid(model.getWidth(), model.getHeight(), g);
+		g.dispose();
+	}
+
+	/**
+	 * Draws the pieces that have landed in cells that overlap the clip, from the cached
+	 * sprites
+	 */
+	private void paintStones(Graphics2D g, Rectangle clip) {
+		int cols = stones.length;
+		int rows = model.getHeight();
+		int firstCol = Math.max(0, clip.x / 50);
+		int lastCol = Math.min(cols - 1, (clip.x + clip.width) / 50);
+		for (int col = firstCol; col <= lastCol; col++) {
+			for (int row = 0; row < rows; row++) {
+				int mark = stones[col][row];
+				// a cell can be empty below a landed piece while the piece for it is falling
+				if (mark == Connect4Model.EMPTY_MARK)
+					continue;
+				int y = stoneY(row);
+				if (y + PIECE_SIZE < clip.y || y > clip.y + clip.height)
+					continue;
+				PieceSprites.drawPiece(g, mark == Connect4Model.PLAYER1_MARK ? PLAYER1_COLOR : PLAYER2_COLOR, col * 50 + 5, y);
+			}
+		}
+	}
+
+	/**
+	 * Returns the y position on the panel of a piece in the given row
+	 */
+	private int stoneY(int row) {
+		return (model.getHeight() - row - 1) * 50 + DROP_REGION_HEIGHT;
+	}
+
+	/**
+	 * Returns the area covered by the hover piece at the given x position
+	 */
+	private static Rectangle hoverBounds(int x) {
+		return new Rectangle(x, 5, PIECE_SIZE + 1, PIECE_SIZE + 1);
 	}
 	
 	/**
@@ -128,16 +261,60 @@ public class Connect4Panel extends JPanel {
 	 * @param playerTurnFirst true if the human player should go first
 	 */
 	public void clearForNewGame(boolean playerTurnFirst) {
-		anim = null;
+		if (pendingMove != null) {
+			pendingMove.cancel(false);
+			pendingMove = null;
+		}
+		aiRunner.newGame();
+		animations.cancelAll();
 		model.clear();
-		drawingBuffer.setData(defaultRaster);
+		for (int[] column : stones) {
+			Arrays.fill(column, Connect4Model.EMPTY_MARK);
+		}
 		gameWon = false;
 		xForTempPiece = -1;
 		winner = WINNER_GAME_IN_PROGRESS;
-		canClick.set(playerTurnFirst);
+		canClick = playerTurnFirst;
 		repaint();
 	}
 	
+	/**
+	 * Takes back the human's last move, along with the computer's reply if it has made one,
+	 * so the human can choose again.  The computer stops thinking, and any pieces still
+	 * falling are put in place at once.  Does nothing if the human has not moved yet.
+	 */
+	public void takeBack() {
+		// only take moves back if one of them is the human's
+		int undone = 0;
+		while (model.getLastPlayer() == Connect4Model.PLAYER2_MARK) {
+			model.undo();
+			undone++;
+		}
+		if (model.getLastPlayer() != Connect4Model.PLAYER1_MARK) {
+			while (undone-- > 0) {
+				model.redo();
+			}
+			return;
+		}
+		model.undo();
+
+		if (pendingMove != null) {
+			pendingMove.cancel(false);
+			pendingMove = null;
+		}
+		aiRunner.cancel();
+		animations.cancelAll();
+		for (int col = 0; col < stones.length; col++) {
+			for (int row = 0; row < stones[col].length; row++) {
+				stones[col][row] = model.getValueAt(row, col);
+			}
+		}
+		gameWon = false;
+		winner = WINNER_GAME_IN_PROGRESS;
+		canClick = true;
+		repaint();
+	}
+
 	/**
 	 * Returns the winner of the game.  Beware, this is cleared by clearForNewGame, so
 	 * if it is needed after calling that, store it elsewhere.
@@ -148,43 +325,26 @@ public class Connect4Panel extends JPanel {
 	}
 
 	/**
-	 * Adds the specified animation, and animates it
-	 * @param animation the animation
-	 * @param listener the listener to be called when the animation is done
+	 * Records a piece that has finished falling, and repaints the cell it landed in
 	 */
-	private void addAnimation(Animation animation, AnimationDoneListener listener) {
-		if (anim != null) throw new IllegalStateException();
-		anim = animation;
-		final AtomicBoolean atomBool = new AtomicBoolean(false);
-		AnimationRunner.runAnimation(animation, atomBool, listener);
-		final AtomicBoolean firstTime = new AtomicBoolean(true);
-
-		SwingUtilities.invokeLater(
-				/**
-				 * The new runnable for the drawing of the animation
-				 */
-				new Runnable() {
-					public void run() {
+	private void placeStone(int col, int row, int mark) {
+		stones[col][row] = mark;
+		repaint(col * 50 + 5, stoneY(row), PIECE_SIZE + 1, PIECE_SIZE + 1);
+	}
 
-						// first time thorough start the animation
-						if (firstTime.get() && !atomBool.get()) {
-							atomBool.set(true);
-							firstTime.set(false);
-						}
-						// repaint during the animation and resubmit for execution if animation not finished
-						if (atomBool.get()) {
-							Connect4Panel.this.repaint();
-							
-							try {
-								Thread.sleep(AnimationRunner.ANIMATION_DELAY);
-							} catch (InterruptedException ex) {
-								Thread.currentThread().interrupt();
-							}
-							SwingUtilities.invokeLater(this);
-							return;
-						}
-					}
-				});
+	/**
+	 * Moves the hover piece, repainting only where it was and where it is now
+	 */
+	private void moveHoverPiece(int x) {
+		if (x == xForTempPiece)
+			return;
+		if (xForTempPiece != -1) {
+			repaint(hoverBounds(xForTempPiece));
+		}
+		xForTempPiece = x;
+		if (x != -1) {
+			repaint(hoverBounds(x));
+		}
 	}
 
 
@@ -199,22 +359,21 @@ public class Connect4Panel extends JPanel {
 		 * Record x position of mouse if in the upper "drop region"
 		 */
 		public void mouseMoved(MouseEvent me) {
-			if (! canClick.get() || gameWon || anim != null) {
-				xForTempPiece = -1;
+			if (! canClick || gameWon) {
+				moveHoverPiece(-1);
 			} else if (me.getY() > 50) {
-				xForTempPiece = -1;
+				moveHoverPiece(-1);
 			} else {
-				xForTempPiece = (me.getX() / 50) * 50 + 5;
+				moveHoverPiece((me.getX() / 50) * 50 + 5);
 			}
-			Connect4Panel.this.repaint();
 		}
 
 		/**
 		 * Record x position of mouse if in upper "drop region"
 		 */
 		public void mouseDragged(MouseEvent me) {
-			if (! canClick.get() || gameWon || anim != null) {
-				xForTempPiece = -1;
+			if (! canClick || gameWon) {
+				moveHoverPiece(-1);
 				return;
 			}
 			mouseMoved(me);
@@ -226,35 +385,35 @@ public class Connect4Panel extends JPanel {
 		 * be created and started.
 		 */
 		public void mouseReleased(MouseEvent me) {
-			if (! canClick.get() || gameWon || anim != null || xForTempPiece == -1)
+			if (! canClick || gameWon || xForTempPiece == -1)
 				return;
 			final int col = me.getX() / 50;
+			if (!model.canAddPiece(col))
+				return;
 			final int row = model.addPiece(col, Connect4Model.PLAYER1_MARK);
-			canClick.set(false);
-			Animation anim = new FallingBallAnimation(xForTempPiece, 5, 8, 0.3, (model.getHeight() - row - 1) * 50 + 60, PLAYER1_COLOR);
-			xForTempPiece = -1;
+			canClick = false;
+			final boolean playerWon = model.isWin(col, row);
+			// let the computer think while the piece is falling
+			final CompletableFuture<Integer> computerMove = playerWon ? null : aiRunner.chooseColumnAsync(model);
+			pendingMove = computerMove;
+			Animation anim = new FallingBallAnimation(xForTempPiece, 5, 8, 0.3, stoneY(row), PLAYER1_COLOR);
+			// the falling piece takes over from the hover piece, so only its old spot needs painting
+			moveHoverPiece(-1);
 
-			addAnimation(anim, new AnimationDoneListener() {
+			animations.start(anim, new AnimationDoneListener() {
 				/**
-				 * Called when the animation is complete.  This method draws the image to the buffer
+				 * Called when the animation is complete.  This method records the landed piece
 				 * and shows the dialog if the player won.  Additionally, it starts the animation 
-				 * for the computer's move
+				 * for the computer's move as soon as the computer has chosen it, or ends the
+				 * game if the computer fails to choose one
 				 */
 				public void animationDone(Animation anim) {
+					placeStone(col, row, Connect4Model.PLAYER1_MARK);
 
-					// draw the final piece onto the BufferedImage
-					Graphics2D g = drawingBuffer.createGraphics();
-					g.setColor(anim.getColor());
-					g.fillOval(anim.getFinalX(), anim.getFinalY() - 60, PIECE_SIZE, PIECE_SIZE);
-					Connect4Panel.this.anim = null;
-					Connect4Panel.this.repaint();
-
+					if (playerWon) {
 
-					if (model.isWin(col, row)) {
-
-						xForTempPiece = -1;
+						moveHoverPiece(-1);
 						winner = HUMAN_PLAYER_WIN;
-						repaint();
 						JFrame frame = (JFrame) SwingUtilities.getAncestorOfClass(JFrame.class, Connect4Panel.this);
 						JOptionPane.showMessageDialog(frame, "You Win!");
 						gameWon = true;
@@ -262,12 +421,23 @@ public class Connect4Panel extends JPanel {
 						return;
 					}
 
-					try {
-						Thread.sleep(50);
-					} catch (InterruptedException ex) {
-						Thread.currentThread().interrupt();
-					}
-					doComputerTurn();
+					computerMove.whenComplete(new BiConsumer<Integer, Throwable>() {
+						public void accept(final Integer computerCol, final Throwable failure) {
+							SwingUtilities.invokeLater(new Runnable() {
+								public void run() {
+									// ignore moves for a game that has since been cleared
+									if (pendingMove != computerMove)
+										return;
+									pendingMove = null;
+									if (failure == null) {
+										doComputerTurn(computerCol);
+									} else {
+										computerFailed(failure);
+									}
+								}
+							});
+						}
+					});
 
 				}
 			});
@@ -275,34 +445,44 @@ public class Connect4Panel extends JPanel {
 		}
 
 		/**
-		 * This method computes the computer's move using the ai bot and then starts its animation.
+		 * Ends the game because the computer couldn't choose a move, and tells the human why.
+		 * The human can still take their move back and try again.
+		 * @param failure what went wrong
+		 */
+		public void computerFailed(Throwable failure) {
+			moveHoverPiece(-1);
+			gameWon = true;
+			JFrame frame = (JFrame) SwingUtilities.getAncestorOfClass(JFrame.class, Connect4Panel.this);
+			JOptionPane.showMessageDialog(frame, "The computer couldn't choose a move, so the game is over.\n" + failure,
+					"Connect 4", JOptionPane.ERROR_MESSAGE);
+		}
+
+		/**
+		 * This method plays the computer's move chosen by the ai bot and then starts its animation.
+		 * @param col the column the ai bot chose
 		 */
-		public void doComputerTurn() {
-			final int col = aiBot.chooseColumn(model);
+		public void doComputerTurn(final int col) {
 			final int row = model.addPiece(col, Connect4Model.PLAYER2_MARK);
-			Animation anim = new FallingBallAnimation(col * 50 + 5, 5, 8, 0.3, (model.getHeight() - row - 1) * 50 + 60, PLAYER2_COLOR);
-			canClick.set(true);
-			repaint();
+			final boolean computerWon = model.isWin(col, row);
+			Animation anim = new FallingBallAnimation(col * 50 + 5, 5, 8, 0.3, stoneY(row), PLAYER2_COLOR);
+			// the human may drop the next piece while this one is still falling
+			canClick = !computerWon;
+			if (!computerWon) {
+				// think about the human's replies while they decide
+				aiRunner.ponderAsync(model);
+			}
 			
-			addAnimation(anim, new AnimationDoneListener() {
+			animations.start(anim, new AnimationDoneListener() {
 				/**
-				 * This method draws the computer's move to the buffer, and then checks if the 
+				 * This method records the computer's landed piece, and then checks if the 
 				 * computer won
 				 */
 				public void animationDone(Animation anim) {
+					placeStone(col, row, Connect4Model.PLAYER2_MARK);
 
-					// draw the final piece onto the BufferedImage
-					Graphics2D g = drawingBuffer.createGraphics();
-					g.setColor(anim.getColor());
-					g.fillOval(anim.getFinalX(), anim.getFinalY() - 60, PIECE_SIZE, PIECE_SIZE);
-					Connect4Panel.this.anim = null;
-					Connect4Panel.this.repaint();
-
-
-					if (model.isWin(col, row)) {
-						xForTempPiece = -1;
+					if (computerWon) {
+						moveHoverPiece(-1);
 						winner = COMPUTER_PLAYER_WIN;
-						repaint();
 						JFrame frame = (JFrame) SwingUtilities.getAncestorOfClass(JFrame.class, Connect4Panel.this);
 						JOptionPane.showMessageDialog(frame, "You Lose!");
 						gameWon = true;
@@ -0,0 +1,114 @@
+package waldonsm.connect4.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pictures of pieces, drawn once with anti-aliasing and then copied wherever a piece is
+ * painted.
+ * <P>
+ * Filling an anti-aliased oval means working out the coverage of every edge pixel each time,
+ * while copying an image is a simple blit, and one the graphics card can do if the image has
+ * the same pixel format as the screen.  So each sprite is made with
+ * GraphicsConfiguration.createCompatibleImage() for the configuration it is drawn on, and
+ * kept for as long as that configuration is in use.
+ * <P>
+ * Sprites are only made and drawn on the Swing event thread, like everything else painted.
+ */
+public final class PieceSprites {
+
+	/**
+	 * The most sprites kept at once.  Each color, size and screen needs its own, so this is
+	 * only reached if the window is moved between many screens, and then the cache starts
+	 * again.
+	 */
+	private static final int MAX_SPRITES = 64;
+
+	private static final Map<SpriteKey, BufferedImage> sprites = new HashMap<SpriteKey, BufferedImage>();
+
+	private PieceSprites() {
+	}
+
+	/**
+	 * Draws a piece of the standard size with its top left corner at the given point
+	 * @param g the graphics to draw with
+	 * @param color the color of the piece
+	 * @param x the left of the piece
+	 * @param y the top of the piece
+	 */
+	public static void drawPiece(Graphics2D g, Color color, int x, int y) {
+		g.drawImage(getSprite(g.getDeviceConfiguration(), color, Connect4Panel.PIECE_SIZE), x, y, null);
+	}
+
+	/**
+	 * Returns the sprite for a piece of the given color and size, making it if it hasn't been
+	 * made yet.  The sprite is one pixel bigger than the piece each way, like the area
+	 * repainted around a piece.
+	 * @param gc the configuration the sprite will be drawn on, or null if not known
+	 * @param color the color of the piece
+	 * @param size the width and height of the piece
+	 * @return the sprite
+	 */
+	public static BufferedImage getSprite(GraphicsConfiguration gc, Color color, int size) {
+		SpriteKey key = new SpriteKey(gc, color.getRGB(), size);
+		BufferedImage sprite = sprites.get(key);
+		if (sprite == null) {
+			if (sprites.size() >= MAX_SPRITES) {
+				sprites.clear();
+			}
+			sprite = render(gc, color, size);
+			sprites.put(key, sprite);
+		}
+		return sprite;
+	}
+
+	private static BufferedImage render(GraphicsConfiguration gc, Color color, int size) {
+		BufferedImage sprite = gc != null ? gc.createCompatibleImage(size + 1, size + 1, Transparency.TRANSLUCENT)
+				: new BufferedImage(size + 1, size + 1, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = sprite.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+		g.setColor(color);
+		g.fillOval(0, 0, size, size);
+		g.dispose();
+		return sprite;
+	}
+
+	/**
+	 * Forgets every sprite, so they are made again the next time they are drawn
+	 */
+	public static void clear() {
+		sprites.clear();
+	}
+
+	private static final class SpriteKey {
+		private final GraphicsConfiguration gc;
+		private final int rgb;
+		private final int size;
+
+		SpriteKey(GraphicsConfiguration gc, int rgb, int size) {
+			this.gc = gc;
+			this.rgb = rgb;
+			this.size = size;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SpriteKey))
+				return false;
+			SpriteKey other = (SpriteKey) o;
+			return gc == other.gc && rgb == other.rgb && size == other.size;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(gc) * 31 + rgb) * 31 + size;
+		}
+	}
+}
@@ -10,7 +10,8 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 
 import waldonsm.connect4.ai.Connect4AI;
-import waldonsm.connect4.ai.StupidAI;
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.ai.PonderingAI;
 
 public class TestPanel {
 
@@ -22,7 +23,7 @@ public class TestPanel {
 	public static void main(String[] args) {
 		SwingUtilities.invokeLater(new Runnable() {
 			public void run() {
-				Connect4AI ai = new StupidAI();
+				Connect4AI ai = new PonderingAI(new NegamaxAI());
 				final Connect4Panel panel = new Connect4Panel(12,8,true,ai);
 				JFrame frame = new JFrame();
 				frame.add(panel);
@@ -32,8 +33,15 @@ public class TestPanel {
 						panel.clearForNewGame(true);
 					}
 				});
+				JButton takeBack = new JButton("Take Back");
+				takeBack.addActionListener(new ActionListener() {
+					public void actionPerformed(ActionEvent e) {
+						panel.takeBack();
+					}
+				});
 				JPanel p = new JPanel();
 				p.add(button);
+				p.add(takeBack);
 				frame.add(p, BorderLayout.SOUTH);
 				frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 				frame.pack();
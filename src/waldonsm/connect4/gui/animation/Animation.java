@@ -2,6 +2,7 @@ package waldonsm.connect4.gui.animation;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 
 public interface Animation {
 
@@ -10,6 +11,28 @@ public interface Animation {
 	 */
 	void next();
 	
+	/**
+	 * Steps the animation forward by the given number of frames, which need not be a whole
+	 * number.  <code>advance(1)</code> does the same as <code>next()</code>.
+	 * <P>
+	 * By default this calls next() for the nearest whole number of frames, and at least
+	 * once, so an animation that only knows how to step one frame still keeps up when frames
+	 * are late.
+	 * @param frames the number of frames to step forward
+	 */
+	default void advance(double frames) {
+		for (long i = Math.max(1, Math.round(frames)); i > 0; i--) {
+			next();
+		}
+	}
+	
+	/**
+	 * Returns the area the current phase of the animation covers when drawn, so that only
+	 * that area needs repainting
+	 * @return the area the animation covers
+	 */
+	Rectangle getBounds();
+	
 	/**
 	 * Draws the current phase of the animation
 	 * @param g the Graphics2D object
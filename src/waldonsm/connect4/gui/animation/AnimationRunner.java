@@ -4,8 +4,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.SwingUtilities;
 
+/**
+ * Runs an animation on a thread of its own, sleeping between frames.
+ * @deprecated Use AnimationScheduler, which runs every animation from one Swing Timer and
+ * steps them by the time that has really passed.
+ */
+@Deprecated
 public class AnimationRunner implements Runnable {
 
+	/**
+	 * The time between frames, in milliseconds
+	 */
 	public static final int ANIMATION_DELAY = 60;
 
 	public static void runAnimation(Animation animation, AtomicBoolean controlBool,
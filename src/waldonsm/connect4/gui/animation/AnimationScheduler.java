@@ -0,0 +1,160 @@
+package waldonsm.connect4.gui.animation;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+import waldonsm.connect4.metrics.LatencyHistogram;
+import waldonsm.connect4.metrics.Metrics;
+
+/**
+ * Runs any number of animations at once from a single Swing Timer, instead of a thread per
+ * animation.
+ * <P>
+ * On every tick each running animation is moved forward by the time that has really passed
+ * since the last tick, measured with System.nanoTime(), so animations run at the same speed
+ * however late the ticks are.  Only the area each animation covered before and after the
+ * tick is repainted.  The timer only runs while there is something to animate.
+ * <P>
+ * Everything happens on the Swing event thread: the scheduler must only be used from it,
+ * and listeners are called on it.
+ * <P>
+ * When metrics are enabled the time between ticks is recorded as <code>gui.frame</code>, and
+ * every whole tick missed in between is counted in <code>gui.droppedFrames</code>.
+ */
+public class AnimationScheduler {
+
+	/**
+	 * The time between ticks, in milliseconds (about 60 per second)
+	 */
+	public static final int TICK_MILLIS = 16;
+
+	/**
+	 * The length of one animation frame, as stepped by Animation.next(), in milliseconds
+	 */
+	public static final int FRAME_MILLIS = 60;
+
+	private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS);
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+	private static final LatencyHistogram FRAME_TIME = Metrics.histogram("gui.frame");
+	private static final LongAdder DROPPED_FRAMES = Metrics.counter("gui.droppedFrames");
+
+	private final JComponent component;
+	private final Timer timer;
+	private final List<Animation> animations = new ArrayList<Animation>();
+	private final List<AnimationDoneListener> listeners = new ArrayList<AnimationDoneListener>();
+	private long lastTick;
+
+	/**
+	 * Creates a new scheduler for animations drawn on the given component
+	 * @param component the component to repaint
+	 */
+	public AnimationScheduler(JComponent component) {
+		this.component = component;
+		timer = new Timer(TICK_MILLIS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				tick();
+			}
+		});
+		timer.setCoalesce(true);
+	}
+
+	/**
+	 * Starts running the given animation
+	 * @param animation the animation
+	 * @param listener the listener to be called when the animation is done
+	 */
+	public void start(Animation animation, AnimationDoneListener listener) {
+		animations.add(animation);
+		listeners.add(listener);
+		component.repaint(animation.getBounds());
+		if (!timer.isRunning()) {
+			lastTick = System.nanoTime();
+			timer.start();
+		}
+	}
+
+	/**
+	 * Stops every animation without calling their listeners
+	 */
+	public void cancelAll() {
+		for (Animation animation : animations) {
+			component.repaint(animation.getBounds());
+		}
+		animations.clear();
+		listeners.clear();
+		timer.stop();
+	}
+
+	/**
+	 * Returns true if any animation is running
+	 * @return true if any animation is running
+	 */
+	public boolean isRunning() {
+		return !animations.isEmpty();
+	}
+
+	/**
+	 * Draws every running animation
+	 * @param g the Graphics2D object
+	 */
+	public void draw(Graphics2D g) {
+		for (Animation animation : animations) {
+			animation.draw(g);
+		}
+	}
+
+	/**
+	 * Moves every animation forward by the time since the last tick, and finishes the ones
+	 * that are done
+	 */
+	private void tick() {
+		long now = System.nanoTime();
+		double frames = (double) (now - lastTick) / FRAME_NANOS;
+		if (Metrics.ENABLED) {
+			FRAME_TIME.record(now - lastTick);
+			long missed = (now - lastTick) / TICK_NANOS - 1;
+			if (missed > 0) {
+				DROPPED_FRAMES.add(missed);
+			}
+		}
+		lastTick = now;
+		// listeners may start new animations, so only finish them once the list is walked
+		List<Animation> done = null;
+		List<AnimationDoneListener> doneListeners = null;
+		for (int i = 0; i < animations.size(); i++) {
+			Animation animation = animations.get(i);
+			Rectangle dirty = animation.getBounds();
+			animation.advance(frames);
+			component.repaint(dirty.union(animation.getBounds()));
+			if (animation.isDone()) {
+				if (done == null) {
+					done = new ArrayList<Animation>();
+					doneListeners = new ArrayList<AnimationDoneListener>();
+				}
+				done.add(animation);
+				doneListeners.add(listeners.get(i));
+				animations.remove(i);
+				listeners.remove(i);
+				i--;
+			}
+		}
+		if (animations.isEmpty()) {
+			timer.stop();
+		}
+		if (done != null) {
+			for (int i = 0; i < done.size(); i++) {
+				doneListeners.get(i).animationDone(done.get(i));
+			}
+		}
+	}
+}
@@ -2,8 +2,10 @@ package waldonsm.connect4.gui.animation;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 
 import waldonsm.connect4.gui.Connect4Panel;
+import waldonsm.connect4.gui.PieceSprites;
 
 public class FallingBallAnimation implements Animation {
 	
@@ -26,10 +28,11 @@ public class FallingBallAnimation implements Animation {
 
 	@Override
 	public void draw(Graphics2D g) {
-		g.setColor(color);
+		int top;
 		synchronized (this) {
-			g.fillOval(finalX, (int) y, Connect4Panel.PIECE_SIZE, Connect4Panel.PIECE_SIZE);
+			top = (int) y;
 		}
+		PieceSprites.drawPiece(g, color, finalX, top);
 	}
 
 	@Override
@@ -52,12 +55,31 @@ public class FallingBallAnimation implements Animation {
 		y += v;
 		v += a;
 	}
+
+	@Override
+	public synchronized void advance(double frames) {
+		// the distance covered under constant acceleration, so that many small steps land
+		// where one big one would
+		double before = y;
+		y += v * frames + a * frames * frames / 2;
+		v += a * frames;
+		if ((before - finalY) * (y - finalY) <= 0) {
+			y = finalY;
+			v = 0;
+		}
+	}
+
+	@Override
+	public synchronized Rectangle getBounds() {
+		// one extra pixel, since y is rounded down when drawn
+		return new Rectangle(finalX, (int) y, Connect4Panel.PIECE_SIZE + 1, Connect4Panel.PIECE_SIZE + 1);
+	}
 	
 	@Override
-	public boolean isDone() {
+	public synchronized boolean isDone() {
 		double d1 = Math.abs(y - finalY);
 		double d2 = Math.abs(y + v - finalY);
-		return d1 < d2;
+		return d1 < d2 || (y == finalY && v == 0);
 	}
 
 	
@@ -0,0 +1,100 @@
+package waldonsm.connect4.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The statistics of a LatencyHistogram at one moment.  All times are in nanoseconds.
+ */
+public final class HistogramSummary {
+
+	private final long count;
+	private final double mean;
+	private final long median;
+	private final long percentile90;
+	private final long percentile99;
+	private final long percentile999;
+	private final long max;
+
+	/**
+	 * Creates a new summary
+	 * @param count the number of values recorded
+	 * @param mean the mean value
+	 * @param median the 50th percentile
+	 * @param percentile90 the 90th percentile
+	 * @param percentile99 the 99th percentile
+	 * @param percentile999 the 99.9th percentile
+	 * @param max the largest value
+	 */
+	@ConstructorProperties({"count", "mean", "median", "percentile90", "percentile99", "percentile999", "max"})
+	public HistogramSummary(long count, double mean, long median, long percentile90, long percentile99, long percentile999, long max) {
+		this.count = count;
+		this.mean = mean;
+		this.median = median;
+		this.percentile90 = percentile90;
+		this.percentile99 = percentile99;
+		this.percentile999 = percentile999;
+		this.max = max;
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean value
+	 * @return the mean value
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Returns the 50th percentile
+	 * @return the 50th percentile
+	 */
+	public long getMedian() {
+		return median;
+	}
+
+	/**
+	 * Returns the 90th percentile
+	 * @return the 90th percentile
+	 */
+	public long getPercentile90() {
+		return percentile90;
+	}
+
+	/**
+	 * Returns the 99th percentile
+	 * @return the 99th percentile
+	 */
+	public long getPercentile99() {
+		return percentile99;
+	}
+
+	/**
+	 * Returns the 99.9th percentile
+	 * @return the 99.9th percentile
+	 */
+	public long getPercentile999() {
+		return percentile999;
+	}
+
+	/**
+	 * Returns the largest value
+	 * @return the largest value
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+				count, mean / 1e3, median / 1e3, percentile90 / 1e3, percentile99 / 1e3, percentile999 / 1e3, max / 1e3);
+	}
+}
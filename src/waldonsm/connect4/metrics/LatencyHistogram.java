@@ -0,0 +1,166 @@
+package waldonsm.connect4.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds that any number of threads can record into at
+ * once without locking.
+ * <P>
+ * The buckets are log-linear, like an HDR histogram: every power of 2 is split into
+ * <code>2^(SUB_BITS-1)</code> buckets of equal width, so any value is placed with a relative
+ * error of at most about 3%, from a nanosecond to hundreds of years, in under two thousand
+ * buckets.  Recording a value costs a few shifts and two atomic adds.
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Values below <code>2^SUB_BITS</code> get a bucket each, larger ones share buckets
+	 */
+	public static final int SUB_BITS = 6;
+
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT / 2;
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * HALF_COUNT + SUB_COUNT;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Creates a new, empty histogram
+	 * @param name the name the histogram is reported under
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the bucket a value goes in
+	 */
+	static int bucket(long value) {
+		if (value < SUB_COUNT)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+		return shift * HALF_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value that goes in the given bucket
+	 */
+	static long highestValue(int bucket) {
+		if (bucket < SUB_COUNT)
+			return bucket;
+		int shift = bucket / HALF_COUNT - 1;
+		long sub = bucket - shift * HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records one duration.  Negative durations are recorded as 0.
+	 * @param nanos the duration, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		count.increment();
+		sum.add(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Records the time since the given start
+	 * @param startNanos the start, as returned by System.nanoTime()
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Returns the smallest recorded value that the given percentage of recorded values are no
+	 * larger than, to within the accuracy of a bucket
+	 * @param percent the percentile, from 0 to 100
+	 * @return the value at the percentile, in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percent) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		long wanted = Math.max(1, (long) Math.ceil(total * percent / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= wanted)
+				return Math.min(highestValue(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the mean of the values recorded
+	 * @return the mean of the values recorded, in nanoseconds, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+
+	/**
+	 * Returns the largest value recorded
+	 * @return the largest value recorded, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the name the histogram is reported under
+	 * @return the name of the histogram
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns a copy of the histogram's statistics as they are right now
+	 * @return a summary of the histogram
+	 */
+	public HistogramSummary getSummary() {
+		return new HistogramSummary(getCount(), getMean(), getPercentile(50), getPercentile(90),
+				getPercentile(99), getPercentile(99.9), getMax());
+	}
+
+	/**
+	 * Forgets every value recorded.  Values recorded while the histogram is being reset may
+	 * or may not be forgotten.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+}
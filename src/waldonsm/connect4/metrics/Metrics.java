@@ -0,0 +1,161 @@
+package waldonsm.connect4.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Named counters and latency histograms for the game, the AIs and the GUI.
+ * <P>
+ * Metrics are off unless the JVM is started with <code>-Dwaldonsm.connect4.metrics=true</code>.
+ * Code that records a metric checks <code>Metrics.ENABLED</code> first.  Since it is a
+ * <code>static final</code> field the JIT compiler treats it as a constant, so when metrics
+ * are off the check and everything inside it is compiled away and costs nothing.  Counters
+ * and histograms should be looked up once and kept in static fields, not looked up by name
+ * each time they are used.
+ * <P>
+ * When metrics are on they are published through JMX as
+ * <code>waldonsm.connect4:type=Metrics</code>.  If
+ * <code>-Dwaldonsm.connect4.metrics.file=<i>path</i></code> is also given, a snapshot of
+ * every metric is written to that file every
+ * <code>-Dwaldonsm.connect4.metrics.period=<i>seconds</i></code> (10 by default) and when
+ * the JVM exits.
+ */
+public final class Metrics {
+
+	/**
+	 * The system property that turns metrics on
+	 */
+	public static final String ENABLED_PROPERTY = "waldonsm.connect4.metrics";
+
+	/**
+	 * The system property naming the snapshot file
+	 */
+	public static final String FILE_PROPERTY = "waldonsm.connect4.metrics.file";
+
+	/**
+	 * The system property giving the number of seconds between snapshots
+	 */
+	public static final String PERIOD_PROPERTY = "waldonsm.connect4.metrics.period";
+
+	/**
+	 * The name the metrics are registered under with JMX
+	 */
+	public static final String OBJECT_NAME = "waldonsm.connect4:type=Metrics";
+
+	/**
+	 * True if metrics should be recorded
+	 */
+	public static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+
+	private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<String, LongAdder>();
+	private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<String, LatencyHistogram>();
+
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+			} catch (JMException ex) {
+				System.err.println("Could not register metrics with JMX: " + ex);
+			}
+			String file = System.getProperty(FILE_PROPERTY);
+			if (file != null) {
+				new MetricsReporter(new File(file)).start(Long.getLong(PERIOD_PROPERTY, 10));
+			}
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * Returns the counter with the given name, creating it if there isn't one yet
+	 * @param name the name of the counter
+	 * @return the counter
+	 */
+	public static LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if there isn't one yet
+	 * @param name the name of the histogram
+	 * @return the histogram
+	 */
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram(name);
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Returns the value of every counter, sorted by name
+	 * @return the value of every counter
+	 */
+	public static Map<String, Long> getCounters() {
+		Map<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+			values.put(e.getKey(), e.getValue().sum());
+		}
+		return values;
+	}
+
+	/**
+	 * Returns a summary of every histogram, sorted by name
+	 * @return a summary of every histogram
+	 */
+	public static Map<String, HistogramSummary> getHistograms() {
+		Map<String, HistogramSummary> values = new TreeMap<String, HistogramSummary>();
+		for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+			values.put(e.getKey(), e.getValue().getSummary());
+		}
+		return values;
+	}
+
+	/**
+	 * Sets every counter back to 0 and empties every histogram
+	 */
+	public static void reset() {
+		for (LongAdder counter : counters.values()) {
+			counter.reset();
+		}
+		for (LatencyHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	private static class MetricsBean implements MetricsMXBean {
+		public Map<String, Long> getCounters() {
+			return Metrics.getCounters();
+		}
+
+		public Map<String, HistogramSummary> getHistograms() {
+			return Metrics.getHistograms();
+		}
+
+		public void reset() {
+			Metrics.reset();
+		}
+	}
+}
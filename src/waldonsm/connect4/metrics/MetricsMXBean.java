@@ -0,0 +1,27 @@
+package waldonsm.connect4.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the metrics, registered as <code>waldonsm.connect4:type=Metrics</code>
+ * when metrics are enabled.
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Returns the value of every counter, by name
+	 * @return the value of every counter
+	 */
+	public Map<String, Long> getCounters();
+
+	/**
+	 * Returns a summary of every histogram, by name.  Times are in nanoseconds.
+	 * @return a summary of every histogram
+	 */
+	public Map<String, HistogramSummary> getHistograms();
+
+	/**
+	 * Sets every counter back to 0 and empties every histogram
+	 */
+	public void reset();
+}
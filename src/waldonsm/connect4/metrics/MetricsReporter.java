@@ -0,0 +1,104 @@
+package waldonsm.connect4.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a snapshot of every metric to a text file every so often.
+ * <P>
+ * Each snapshot replaces the last one.  It is written to a temporary file first and then
+ * moved over the old one, so a reader never sees half a snapshot.  For every pair of
+ * counters named <code><i>x</i>.hits</code> and <code><i>x</i>.misses</code> the hit rate
+ * <code><i>x</i>.hitRate</code> is written too.
+ */
+public class MetricsReporter {
+
+	private final File file;
+
+	/**
+	 * Creates a new reporter
+	 * @param file the file to write snapshots to
+	 */
+	public MetricsReporter(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Starts writing a snapshot every given number of seconds on a daemon thread, and once
+	 * more when the JVM exits
+	 * @param periodSeconds the number of seconds between snapshots
+	 */
+	public void start(long periodSeconds) {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Connect4 metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Runnable write = new Runnable() {
+			public void run() {
+				try {
+					write();
+				} catch (IOException ex) {
+					System.err.println("Could not write metrics to " + file + ": " + ex);
+				}
+			}
+		};
+		executor.scheduleAtFixedRate(write, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(write, "Connect4 metrics shutdown"));
+	}
+
+	/**
+	 * Writes a snapshot of every metric now
+	 * @throws IOException if the file can't be written
+	 */
+	public synchronized void write() throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			PrintWriter out = new PrintWriter(temp, "UTF-8");
+			try {
+				writeSnapshot(out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Writes every metric to the given writer, one per line
+	 * @param out the writer
+	 */
+	public static void writeSnapshot(PrintWriter out) {
+		out.println("# Connect 4 metrics at " + new Date());
+		Map<String, Long> counters = Metrics.getCounters();
+		for (Map.Entry<String, Long> e : counters.entrySet()) {
+			out.println(e.getKey() + " " + e.getValue());
+			String name = e.getKey();
+			if (name.endsWith(".hits")) {
+				String prefix = name.substring(0, name.length() - ".hits".length());
+				Long misses = counters.get(prefix + ".misses");
+				if (misses != null) {
+					long total = e.getValue() + misses;
+					out.printf("%s.hitRate %.4f%n", prefix, total == 0 ? 0.0 : (double) e.getValue() / total);
+				}
+			}
+		}
+		for (Map.Entry<String, HistogramSummary> e : Metrics.getHistograms().entrySet()) {
+			out.println(e.getKey() + " " + e.getValue());
+		}
+	}
+}
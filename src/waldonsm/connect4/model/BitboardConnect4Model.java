@@ -0,0 +1,540 @@
+package waldonsm.connect4.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Connect4Model that stores the board as one <code>long</code> bitboard per player, meant
+ * for AI searches that need to make and take back millions of moves per second.
+ * <P>
+ * The cell at column <code>c</code>, row <code>r</code> is bit <code>c * (height + 1) + r</code>.
+ * The extra bit on top of each column is always empty, so that the shifts used to look for
+ * runs can never wrap from the top of one column into the bottom of the next.  This means the
+ * board can have at most <code>width * (height + 1) &lt;= 64</code> cells, which is plenty for
+ * the standard 7x6 board.  Bigger boards can use MultiWordBitboardConnect4Model instead.
+ * <P>
+ * Any win length can be used.  Runs of length <code>k</code> are found with about
+ * <code>log2(k)</code> shifts per direction, by doubling the length of the runs found so far.
+ * <P>
+ * Like Connect4ModelImpl, very little error checking is done.  Unlike it, this class is not
+ * synchronized, since it is meant to be owned by a single searching thread.
+ */
+public final class BitboardConnect4Model implements MutableConnect4Model {
+
+	/**
+	 * The number of bits available for the board, including the padding row
+	 */
+	public static final int MAX_BITS = 64;
+
+	/**
+	 * The Zobrist keys for each player mark and bit.  They are generated from a fixed seed, so
+	 * hashes are the same from one run to the next.
+	 */
+	private static final long[][] ZOBRIST = Zobrist.keys(MAX_BITS);
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	/**
+	 * The distance in bits between the bottom of one column and the bottom of the next
+	 */
+	private final int stride;
+	/**
+	 * One bit at the bottom of every column
+	 */
+	private final long bottomMask;
+	/**
+	 * Every cell that is on the board (everything but the padding bits)
+	 */
+	private final long boardMask;
+	/**
+	 * The pieces of each player, indexed by player mark.  Index EMPTY_MARK is unused.
+	 */
+	private final long[] boards = new long[3];
+	/**
+	 * The number of pieces in each column
+	 */
+	private final int[] heights;
+	/**
+	 * The columns played, in order, so that they can be taken back
+	 */
+	private final int[] moves;
+	private int moveCount;
+	/**
+	 * The Zobrist hash of the current position, updated as pieces are added and taken back
+	 */
+	private long hash;
+	/**
+	 * The Zobrist hash of the current position mirrored left to right
+	 */
+	private long mirrorHash;
+
+	/**
+	 * Creates a new, empty bitboard model with the given width and height, for connect 4
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @throws IllegalArgumentException if the board does not fit in a bitboard
+	 */
+	public BitboardConnect4Model(int height, int width) {
+		this(height, width, DEFAULT_WIN_LENGTH);
+	}
+
+	/**
+	 * Creates a new, empty bitboard model with the given width, height and win length
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @throws IllegalArgumentException if the board does not fit in a bitboard
+	 */
+	public BitboardConnect4Model(int height, int width, int winLength) {
+		if (!fits(height, width))
+			throw new IllegalArgumentException("A " + width + "x" + height + " board does not fit in a bitboard");
+		if (winLength < 2)
+			throw new IllegalArgumentException("Win length must be at least 2");
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		stride = height + 1;
+		long bottom = 0;
+		for (int i = 0; i < width; i++) {
+			bottom |= 1L << (i * stride);
+		}
+		bottomMask = bottom;
+		boardMask = bottom * ((1L << height) - 1);
+		heights = new int[width];
+		moves = new int[width * height];
+	}
+
+	/**
+	 * Returns true if a board of the given size can be stored in a BitboardConnect4Model
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @return true if a board of the given size can be stored in a BitboardConnect4Model
+	 */
+	public static boolean fits(int height, int width) {
+		return width > 0 && height > 0 && width * (height + 1) <= MAX_BITS;
+	}
+
+	/**
+	 * Replaces the contents of this board with the contents of the given model, which must
+	 * have the same size.  The move history is not known, so after this call nothing can be
+	 * taken back with undo() until more pieces are added.
+	 * @param model the model to copy
+	 */
+	public void load(Connect4Model model) {
+		if (model.getWidth() != width || model.getHeight() != height)
+			throw new IllegalArgumentException("Board sizes do not match");
+		clear();
+		for (int col = 0; col < width; col++) {
+			int row = 0;
+			int mark;
+			while (row < height && (mark = model.getValueAt(row, col)) != EMPTY_MARK) {
+				boards[mark] |= bit(col, row);
+				hash ^= ZOBRIST[mark][col * stride + row];
+				mirrorHash ^= ZOBRIST[mark][(width - 1 - col) * stride + row];
+				row++;
+			}
+			heights[col] = row;
+		}
+	}
+
+	/**
+	 * Adds a piece to the given column if it can
+	 * @param column the column to add to
+	 * @param playerNum the player who is adding to the column
+	 * @return the row in that column that the piece wound up on, or -1 if the column is full
+	 */
+	public int addPiece(int column, int playerNum) {
+		int row = heights[column];
+		if (row == height)
+			return -1;
+		boards[playerNum] |= bit(column, row);
+		hash ^= ZOBRIST[playerNum][column * stride + row];
+		mirrorHash ^= ZOBRIST[playerNum][(width - 1 - column) * stride + row];
+		heights[column] = row + 1;
+		moves[moveCount++] = column;
+		return row;
+	}
+
+	/**
+	 * Takes back the last piece added with addPiece
+	 * @return the column the piece was taken from, or -1 if there is nothing to take back
+	 */
+	public int undo() {
+		if (moveCount == 0)
+			return -1;
+		int column = moves[--moveCount];
+		int row = --heights[column];
+		long b = bit(column, row);
+		int mark = (boards[PLAYER1_MARK] & b) != 0 ? PLAYER1_MARK : PLAYER2_MARK;
+		boards[mark] &= ~b;
+		hash ^= ZOBRIST[mark][column * stride + row];
+		mirrorHash ^= ZOBRIST[mark][(width - 1 - column) * stride + row];
+		return column;
+	}
+
+	/**
+	 * Clears the board in preparation for a new game.
+	 */
+	public void clear() {
+		boards[PLAYER1_MARK] = 0;
+		boards[PLAYER2_MARK] = 0;
+		for (int i = 0; i < width; i++) {
+			heights[i] = 0;
+		}
+		moveCount = 0;
+		hash = 0;
+		mirrorHash = 0;
+	}
+
+	/**
+	 * Returns true if the given row and column is part of a winning run
+	 * @param col the column
+	 * @param row the row
+	 * @return true if the given row and column is part of a winning run
+	 */
+	public boolean isWin(int col, int row) {
+		long b = bit(col, row);
+		int mark = (boards[PLAYER1_MARK] & b) != 0 ? PLAYER1_MARK : (boards[PLAYER2_MARK] & b) != 0 ? PLAYER2_MARK : EMPTY_MARK;
+		if (mark == EMPTY_MARK)
+			throw new IllegalArgumentException("No player has moved in this space");
+		return (winningCells(boards[mark]) & b) != 0;
+	}
+
+	/**
+	 * Returns true if the given player has a winning run anywhere on the board
+	 * @param playerNum the player
+	 * @return true if the given player has a winning run anywhere on the board
+	 */
+	public boolean hasWon(int playerNum) {
+		long b = boards[playerNum];
+		return runStarts(b, 1) != 0 || runStarts(b, stride) != 0
+				|| runStarts(b, stride + 1) != 0 || runStarts(b, stride - 1) != 0;
+	}
+
+	/**
+	 * Returns true if the given player could win by dropping a piece in some column right now
+	 * @param playerNum the player
+	 * @return true if the given player has a winning move
+	 */
+	public boolean hasWinningMove(int playerNum) {
+		return (getThreats(playerNum) & getPlayableCells()) != 0;
+	}
+
+	/**
+	 * Returns the number of empty cells where the given player would complete a winning run
+	 * @param playerNum the player
+	 * @return the number of threats the player has
+	 */
+	public int getThreatCount(int playerNum) {
+		return Long.bitCount(getThreats(playerNum));
+	}
+
+	/**
+	 * Returns every cell of the given bitboard that is part of a winning run
+	 */
+	private long winningCells(long b) {
+		return spread(runStarts(b, 1), 1) | spread(runStarts(b, stride), stride)
+				| spread(runStarts(b, stride + 1), stride + 1) | spread(runStarts(b, stride - 1), stride - 1);
+	}
+
+	/**
+	 * Returns the lowest bit of every winning run in the given direction.  Each pass doubles
+	 * the length of the runs found, so a run of <code>k</code> takes about
+	 * <code>log2(k)</code> passes.
+	 */
+	private long runStarts(long b, int shift) {
+		long m = b;
+		int run = 1;
+		while (run < winLength) {
+			int step = Math.min(run, winLength - run);
+			m &= shiftRight(m, step * shift);
+			run += step;
+		}
+		return m;
+	}
+
+	/**
+	 * Turns the lowest bits of winning runs back into the whole runs
+	 */
+	private long spread(long m, int shift) {
+		int run = 1;
+		while (run < winLength) {
+			int step = Math.min(run, winLength - run);
+			m |= shiftLeft(m, step * shift);
+			run += step;
+		}
+		return m;
+	}
+
+	/**
+	 * Shifts left, giving 0 rather than wrapping around for shifts of 64 or more
+	 */
+	private static long shiftLeft(long b, int n) {
+		return n < 64 ? b << n : 0;
+	}
+
+	/**
+	 * Shifts right, giving 0 rather than wrapping around for shifts of 64 or more
+	 */
+	private static long shiftRight(long b, int n) {
+		return n < 64 ? b >>> n : 0;
+	}
+
+	/**
+	 * Returns every empty cell where the given player would complete a winning run, whether or
+	 * not a piece can be dropped there yet
+	 * @param playerNum the player
+	 * @return the bitboard of empty cells that would win for the given player
+	 */
+	public long getThreats(int playerNum) {
+		long b = boards[playerNum];
+		long r;
+		if (winLength == 4) {
+			r = threats4(b, 1) | threats4(b, stride) | threats4(b, stride + 1) | threats4(b, stride - 1);
+		} else {
+			r = threats(b, 1) | threats(b, stride) | threats(b, stride + 1) | threats(b, stride - 1);
+		}
+		return r & boardMask & ~getOccupied();
+	}
+
+	/**
+	 * Returns every cell that makes a winning run with <code>winLength - 1</code> pieces of the
+	 * given bitboard in the given direction.  For each place the cell could have in the run,
+	 * the other cells of the run are shifted onto it and ANDed together.
+	 */
+	private long threats(long b, int shift) {
+		long r = 0;
+		for (int gap = 0; gap < winLength; gap++) {
+			long p = -1L;
+			for (int k = 0; k < winLength && p != 0; k++) {
+				if (k < gap) {
+					p &= shiftLeft(b, (gap - k) * shift);
+				} else if (k > gap) {
+					p &= shiftRight(b, (k - gap) * shift);
+				}
+			}
+			r |= p;
+		}
+		return r;
+	}
+
+	/**
+	 * Returns every cell that would complete four in a row with the given pieces, on a
+	 * bitboard laid out like this class's with the given distance between columns.  The
+	 * result is not masked, so it may include occupied cells and cells off the board.
+	 * @param pieces the pieces of one player
+	 * @param stride the distance in bits between the bottom of one column and the next
+	 * (the height of the board plus 1)
+	 * @return the cells that would complete four in a row
+	 */
+	public static long fourInARowThreats(long pieces, int stride) {
+		return threats4(pieces, 1) | threats4(pieces, stride) | threats4(pieces, stride + 1) | threats4(pieces, stride - 1);
+	}
+
+	/**
+	 * The same as threats(), unrolled for runs of 4
+	 */
+	private static long threats4(long b, int shift) {
+		long r = 0;
+		long p = (b << shift) & (b << (2 * shift));
+		r |= p & (b << (3 * shift));
+		r |= p & (b >>> shift);
+		p = (b >>> shift) & (b >>> (2 * shift));
+		r |= p & (b >>> (3 * shift));
+		r |= p & (b << shift);
+		return r;
+	}
+
+	/**
+	 * Returns the cells a piece would land on if dropped in each column that is not full
+	 * @return the bitboard of cells where a piece can be played right now
+	 */
+	public long getPlayableCells() {
+		return (getOccupied() + bottomMask) & boardMask;
+	}
+
+	/**
+	 * Returns the bitboard holding every cell of the given column
+	 * @param column the column
+	 * @return the bitboard holding every cell of the given column
+	 */
+	public long getColumnMask(int column) {
+		return ((1L << height) - 1) << (column * stride);
+	}
+
+	private long bit(int col, int row) {
+		return 1L << (col * stride + row);
+	}
+
+	/**
+	 * Returns the bitboard holding the given player's pieces
+	 * @param playerNum the player
+	 * @return the bitboard holding the given player's pieces
+	 */
+	public long getBoard(int playerNum) {
+		return boards[playerNum];
+	}
+
+	/**
+	 * Returns the bitboard of all occupied cells
+	 * @return the bitboard of all occupied cells
+	 */
+	public long getOccupied() {
+		return boards[PLAYER1_MARK] | boards[PLAYER2_MARK];
+	}
+
+	/**
+	 * Returns the Zobrist hash of the current position.  Two positions with the same pieces in
+	 * the same places always have the same hash, however they were reached.
+	 * @return the Zobrist hash of the current position
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the Zobrist hash the current position would have if it were mirrored left to
+	 * right
+	 * @return the Zobrist hash of the mirror image of the current position
+	 */
+	public long getMirrorHash() {
+		return mirrorHash;
+	}
+
+	/**
+	 * Returns the smaller of getHash() and getMirrorHash(), which is the same for a position
+	 * and its mirror image
+	 * @return the canonical Zobrist hash of the current position
+	 */
+	public long getCanonicalHash() {
+		return Math.min(hash, mirrorHash);
+	}
+
+	/**
+	 * Returns the number of pieces the given player has on the board
+	 * @param playerNum the player
+	 * @return the number of pieces the given player has on the board
+	 */
+	public int getPieceCount(int playerNum) {
+		return Long.bitCount(boards[playerNum]);
+	}
+
+	/**
+	 * Returns the number of pieces in the given column
+	 * @param column the column
+	 * @return the number of pieces in the given column
+	 */
+	public int getColumnHeight(int column) {
+		return heights[column];
+	}
+
+	/**
+	 * Returns the number of pieces that can be taken back with undo()
+	 * @return the number of pieces that can be taken back with undo()
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns an immutable copy of the board as it is right now
+	 * @return an immutable copy of the board
+	 */
+	public Connect4Snapshot getSnapshot() {
+		return new Connect4Snapshot(this);
+	}
+
+	/**
+	 * Returns a COPY of the board.  The array should be accessed in the form
+	 * <code>array[col][row]</code>.
+	 * @return a copy of the board.
+	 */
+	public int[][] getArray() {
+		int[][] arr = new int[width][height];
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < heights[i]; j++) {
+				arr[i][j] = getValueAt(j, i);
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * Returns the number of rows in the connect 4 board
+	 * @return the number of rows in the connect 4 board
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of columns in the Connect 4 board
+	 * @return the number of columns in the Connect 4 board
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win
+	 * @return the number of pieces in a row needed to win
+	 */
+	public int getWinLength() {
+		return winLength;
+	}
+
+	/**
+	 * Gets the value at the row and column specified
+	 * @param row the row
+	 * @param col the column
+	 * @return the value, which will be either PLAYER1_MARK, PLAYER2_MARK, or EMPTY_MARK
+	 */
+	public int getValueAt(int row, int col) {
+		long b = bit(col, row);
+		if ((boards[PLAYER1_MARK] & b) != 0)
+			return PLAYER1_MARK;
+		if ((boards[PLAYER2_MARK] & b) != 0)
+			return PLAYER2_MARK;
+		return EMPTY_MARK;
+	}
+
+	/**
+	 * Returns true if a piece can be added to the given column (i.e. if the column is not full)
+	 * @param column the column in question
+	 * @return true if a piece can be added to the column
+	 */
+	public boolean canAddPiece(int column) {
+		return heights[column] < height;
+	}
+
+	/**
+	 * Returns a list of all the columns with empty top spaces which would be valid moves
+	 * @return a list of all the columns with empty top spaces which would be valid moves
+	 */
+	public List<Integer> getAvailableMoves() {
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < width; i++) {
+			if (heights[i] < height) {
+				list.add(i);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Fills the given array with all the columns with empty top spaces which would be valid
+	 * moves, in order, and returns how many there are.
+	 * @param moves the array to fill, which must have at least getWidth() elements
+	 * @return the number of columns written to the array
+	 */
+	public int getAvailableMoves(int[] moves) {
+		int count = 0;
+		for (int i = 0; i < width; i++) {
+			if (heights[i] < height) {
+				moves[count++] = i;
+			}
+		}
+		return count;
+	}
+}
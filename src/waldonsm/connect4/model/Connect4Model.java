@@ -16,6 +16,10 @@ public interface Connect4Model {
 	 * Used to indicate that a cell is empty
 	 */
 	public static final int EMPTY_MARK = 0;
+	/**
+	 * The number of pieces in a row needed to win a standard game of Connect 4
+	 */
+	public static final int DEFAULT_WIN_LENGTH = 4;
 	
 	/**
 	 * Returns a COPY of the internal array.  The array should be accessed in the form
@@ -36,6 +40,15 @@ public interface Connect4Model {
 	 */
 	public int getWidth();
 	
+	/**
+	 * Returns the number of pieces in a row needed to win.  By default this is
+	 * DEFAULT_WIN_LENGTH; models that support other win lengths override it.
+	 * @return the number of pieces in a row needed to win
+	 */
+	public default int getWinLength() {
+		return DEFAULT_WIN_LENGTH;
+	}
+	
 	/**
 	 * Gets the value at the row and column specified
 	 * @param row the row
@@ -56,4 +69,35 @@ public interface Connect4Model {
 	 * @return a list of all the columns with empty top spaces which would be valid moves
 	 */
 	public List<Integer> getAvailableMoves();
+	
+	/**
+	 * Fills the given array with all the columns with empty top spaces which would be valid
+	 * moves, in order, and returns how many there are.  Unlike getAvailableMoves(), this 
+	 * creates no garbage, so it is the one to use in an AI's inner loop.
+	 * <P>
+	 * By default this asks canAddPiece() about each column in turn.
+	 * @param moves the array to fill, which must have at least getWidth() elements
+	 * @return the number of columns written to the array
+	 */
+	public default int getAvailableMoves(int[] moves) {
+		int count = 0;
+		for (int col = 0; col < getWidth(); col++) {
+			if (canAddPiece(col)) {
+				moves[count++] = col;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns an immutable copy of the board as it is right now.  The snapshot can be read
+	 * from any thread without locking, and never changes even if this model does.
+	 * <P>
+	 * By default the board is copied one cell at a time with getValueAt(), so a model that
+	 * other threads may change must override this to copy it consistently.
+	 * @return an immutable copy of the board
+	 */
+	public default Connect4Snapshot getSnapshot() {
+		return new Connect4Snapshot(this);
+	}
 }
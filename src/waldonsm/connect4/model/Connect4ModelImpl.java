@@ -1,45 +1,198 @@
 package waldonsm.connect4.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import waldonsm.connect4.metrics.LatencyHistogram;
+import waldonsm.connect4.metrics.Metrics;
+
 /**
  * This class provides the basic implementation for a connect 4 board.
  * Very little error checking is provided.... so ArrayIndexOutOfBoundsExceptions are
  * your own fault.
+ * <P>
+ * All the methods are synchronized.  Threads that only want to look at the board should
+ * use getSnapshot(), which hands out an immutable snapshot without locking.  A new snapshot
+ * is made with every move, but it copies only the column the move changed and shares the
+ * rest with the one before, so no move or reader ever copies the whole board.
+ * <P>
+ * The model keeps count of every player's pieces in every possible winning line (see
+ * LineTracker) as pieces are added, so wins, draws and threats are known without scanning
+ * the board.  The win length defaults to 4 but can be anything, on a board of any size.
+ * <P>
+ * Every move is kept on a stack, along with the height of every column, so moves can be
+ * taken back with undo() and played again with redo() without copying the board.  Adding,
+ * undoing and redoing a piece all cost the same: apart from the new snapshot, which grows
+ * with the width and height, nothing depends on the size of the board.
  */
 public final class Connect4ModelImpl implements Connect4Model {
 	
+	private static final LatencyHistogram IS_WIN_TIME = Metrics.histogram("model.isWin");
+	
 	/**
 	 * The board
 	 */
 	private final int[][] array;
 	
+	/**
+	 * The pieces in every line, kept up to date as pieces are added
+	 */
+	private final LineTracker tracker;
+	
+	/**
+	 * The cell of the last piece added, or -1 if the board is empty
+	 */
+	private int lastCell = -1;
+	
+	/**
+	 * The number of pieces in each column
+	 */
+	private final int[] heights;
+	
+	/**
+	 * The columns played since the board was last cleared, in order, and the player who
+	 * played each one.  The first <code>moveCount</code> moves are on the board; the ones
+	 * after them, up to <code>historyEnd</code>, have been undone and can be redone.
+	 */
+	private final int[] history;
+	private final int[] players;
+	private int moveCount;
+	private int historyEnd;
+	
+	/**
+	 * The snapshot of the current board, replaced whenever the board changes
+	 */
+	private volatile Connect4Snapshot snapshot;
+	
 	/**
 	 * Creates a new Connect4Model with the given width and height
 	 * @param height the height of the board (number of rows)
 	 * @param width the width of the board (number of columns)
 	 */
 	public Connect4ModelImpl(int height, int width) {
+		this(height, width, DEFAULT_WIN_LENGTH);
+	}
+
+	/**
+	 * Creates a new Connect4Model with the given width, height and win length
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 */
+	public Connect4ModelImpl(int height, int width, int winLength) {
+		if (winLength < 2)
+			throw new IllegalArgumentException("Win length must be at least 2");
 		array = new int[width][height];
+		tracker = new LineTracker(new WinningLines(height, width, winLength));
+		heights = new int[width];
+		history = new int[width * height];
+		players = new int[width * height];
+		snapshot = new Connect4Snapshot(array, winLength);
+	}
+
+	/**
+	 * Creates a new Connect4Model holding a copy of the given board.  The order the pieces
+	 * were played in is not known, so the copy starts with an empty move history, and the
+	 * pieces already on the board can't be undone.
+	 * @param model the board to copy
+	 */
+	public Connect4ModelImpl(Connect4Model model) {
+		array = model.getArray();
+		int height = array[0].length;
+		heights = new int[array.length];
+		history = new int[array.length * height];
+		players = new int[array.length * height];
+		tracker = new LineTracker(new WinningLines(height, array.length, model.getWinLength()));
+		for (int i = 0; i < array.length; i++) {
+			for (int j = 0; j < height; j++) {
+				if (array[i][j] != EMPTY_MARK) {
+					tracker.add(i * height + j, array[i][j]);
+					heights[i] = j + 1;
+				}
+			}
+		}
+		snapshot = new Connect4Snapshot(array, model.getWinLength());
 	}
 	
 	/**
-	 * Adds a piece to the given column if it can
+	 * Adds a piece to the given column if it can.  Any moves that were undone can no longer
+	 * be redone.
 	 * @param column the column to add to
 	 * @param playerNum the player who is adding to the column
-	 * @return the row in that column that the piece wound up on
+	 * @return the row in that column that the piece wound up on, or -1 if the column is full
 	 */
 	public synchronized int addPiece(int column, int playerNum) {
-		if (!canAddPiece(column))
+		if (heights[column] == array[0].length)
 			return -1;
-		int row = array[column].length - 1;
-		while (row > 0 && array[column][row-1] == EMPTY_MARK)
-			row--;
+		history[moveCount] = column;
+		players[moveCount] = playerNum;
+		historyEnd = moveCount + 1;
+		return place(column, playerNum);
+	}
+	
+	/**
+	 * Puts a piece on top of the given column, which must not be full, for the move at the
+	 * top of the history
+	 */
+	private int place(int column, int playerNum) {
+		int row = heights[column]++;
 		array[column][row] = playerNum;
+		lastCell = column * array[0].length + row;
+		tracker.add(lastCell, playerNum);
+		moveCount++;
+		snapshot = snapshot.with(column, row, playerNum);
 		return row;
 	}
 	
+	/**
+	 * Takes back the last move played, so it can be played again with redo()
+	 * @return the column of the move taken back, or -1 if there are no moves to take back
+	 */
+	public synchronized int undo() {
+		if (moveCount == 0)
+			return -1;
+		moveCount--;
+		int column = history[moveCount];
+		int row = --heights[column];
+		array[column][row] = EMPTY_MARK;
+		tracker.remove(column * array[0].length + row, players[moveCount]);
+		if (moveCount > 0) {
+			int previous = history[moveCount - 1];
+			lastCell = previous * array[0].length + heights[previous] - 1;
+		} else {
+			lastCell = -1;
+		}
+		snapshot = snapshot.with(column, row, EMPTY_MARK);
+		return column;
+	}
+	
+	/**
+	 * Plays the last move taken back by undo() again, for the same player
+	 * @return the row the piece landed on, or -1 if there are no moves to redo
+	 */
+	public synchronized int redo() {
+		if (moveCount == historyEnd)
+			return -1;
+		return place(history[moveCount], players[moveCount]);
+	}
+	
+	/**
+	 * Returns true if there is a move that undo() can take back
+	 * @return true if there is a move to undo
+	 */
+	public synchronized boolean canUndo() {
+		return moveCount > 0;
+	}
+	
+	/**
+	 * Returns true if there is a move that redo() can play again
+	 * @return true if there is a move to redo
+	 */
+	public synchronized boolean canRedo() {
+		return moveCount < historyEnd;
+	}
+	
 	/**
 	 * Clears the board in preparation for a new game.
 	 * <P>
@@ -51,6 +204,21 @@ public final class Connect4ModelImpl implements Connect4Model {
 				array[i][j] = EMPTY_MARK;
 			}
 		}
+		tracker.clear();
+		Arrays.fill(heights, 0);
+		lastCell = -1;
+		moveCount = 0;
+		historyEnd = 0;
+		snapshot = new Connect4Snapshot(array, getWinLength());
+	}
+	
+	/**
+	 * Returns an immutable copy of the board as it is right now, without taking the lock or
+	 * copying anything.  Until the board changes every call returns the same snapshot.
+	 * @return an immutable copy of the board
+	 */
+	public Connect4Snapshot getSnapshot() {
+		return snapshot;
 	}
 	
 	/**
@@ -84,6 +252,14 @@ public final class Connect4ModelImpl implements Connect4Model {
 		return array.length;
 	}
 	
+	/**
+	 * Returns the number of pieces in a row needed to win
+	 * @return the number of pieces in a row needed to win
+	 */
+	public int getWinLength() {
+		return tracker.getLines().getLength();
+	}
+	
 	/**
 	 * Gets the value at the row and column specified
 	 * @param row the row
@@ -97,15 +273,31 @@ public final class Connect4ModelImpl implements Connect4Model {
 	/**
 	 * Returns a list of all the columns with empty top spaces which would be valid moves
 	 */
-	public synchronized List<Integer> getAvailableMoves() {
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		int top = getHeight() -1;
+	public List<Integer> getAvailableMoves() {
+		int[] moves = new int[array.length];
+		int count = getAvailableMoves(moves);
+		ArrayList<Integer> list = new ArrayList<Integer>(count);
+		for (int i = 0; i < count; i++) {
+			list.add(moves[i]);
+		}
+		return list;
+	}
+	
+	/**
+	 * Fills the given array with all the columns with empty top spaces which would be valid
+	 * moves, in order, and returns how many there are.
+	 * @param moves the array to fill, which must have at least getWidth() elements
+	 * @return the number of columns written to the array
+	 */
+	public synchronized int getAvailableMoves(int[] moves) {
+		int count = 0;
+		int top = array[0].length - 1;
 		for (int i = 0; i < array.length; i++) {
 			if (array[i][top] == EMPTY_MARK) {
-				list.add(i);
+				moves[count++] = i;
 			}
 		}
-		return list;
+		return count;
 	}
 	
 	/**
@@ -114,88 +306,105 @@ public final class Connect4ModelImpl implements Connect4Model {
 	 * @return true if a piece can be added to the column
 	 */
 	public synchronized boolean canAddPiece(int column) {
-		return array[column][array[0].length-1] == EMPTY_MARK;
+		return heights[column] < array[0].length;
+	}
+	
+	/**
+	 * Returns the number of pieces in the given column
+	 * @param column the column
+	 * @return the number of pieces in the column
+	 */
+	public synchronized int getColumnHeight(int column) {
+		return heights[column];
+	}
+	
+	/**
+	 * Returns the number of moves played since the board was created or last cleared, not
+	 * counting moves that were undone
+	 * @return the number of moves in the move history
+	 */
+	public synchronized int getMoveCount() {
+		return moveCount;
+	}
+	
+	/**
+	 * Fills the given array with the columns played since the board was created or last
+	 * cleared, in order, and returns how many there are
+	 * @param moves the array to fill, which must have at least getMoveCount() elements
+	 * @return the number of columns written to the array
+	 */
+	public synchronized int getMoves(int[] moves) {
+		System.arraycopy(history, 0, moves, 0, moveCount);
+		return moveCount;
 	}
 	
 	/**
-	 * Returns true if the given row and column is part of a winning run of 4
+	 * Returns the column of the last move in the move history
+	 * @return the column of the last move, or -1 if the history is empty
+	 */
+	public synchronized int getLastMove() {
+		return moveCount == 0 ? -1 : history[moveCount - 1];
+	}
+	
+	/**
+	 * Returns the player who made the last move in the move history
+	 * @return the player mark of the last move, or EMPTY_MARK if the history is empty
+	 */
+	public synchronized int getLastPlayer() {
+		return moveCount == 0 ? EMPTY_MARK : players[moveCount - 1];
+	}
+	
+	/**
+	 * Returns true if the given row and column is part of a winning run
 	 * @param col the column
 	 * @param row the row
-	 * @return true if the given row and column is part of a winning run of 4
+	 * @return true if the given row and column is part of a winning run
 	 */
 	public synchronized boolean isWin(final int col, final int row) {
 		if (array[col][row] == EMPTY_MARK)
 			throw new IllegalArgumentException("No player has moved in this space");
-		int count = 1;
-		// test off diagonal (like forward slash /)
-		int c = col;
-		int r = row;
-		while (c < array.length-2 && r < array[c].length-2 && array[c][r] == array[c+1][r+1]) {
-			count++;
-			c++;
-			r++;
-		}
-		c = col;
-		r = row;
-		while (c > 0 && r > 0 && array[c][r] == array[c-1][r-1]) {
-			count++;
-			c--;
-			r--;
-		}
-		if (count >= 4) {
-			return true;
-		}
-		// test main diagonal (like backslash \)
-		count = 1;
-		c = col;
-		r = row;
-		while (c < array.length-2 && r > 0 && array[c][r] == array[c+1][r-1]) {
-			count++;
-			c++;
-			r--;
-		}
-		c = col;
-		r = row;
-		while (c > 0 && r < array[c].length-2 && array[c][r] == array[c-1][r+1]) {
-			count++;
-			c--;
-			r++;
-		}
-		if (count >= 4) {
-			return true;
-		}
-		// test for side to side win
-		count = 1;
-		c = col;
-		r = row;
-		while (c < array.length-2 && array[c][r] == array[c+1][r]) {
-			count++;
-			c++;
-		}
-		c = col;
-		while (c > 0 && array[c][r] == array[c-1][r]) {
-			count++;
-			c--;
-		}
-		if (count >= 4) {
-			return true;
-		}
-		// test for vertical win
-		count = 1;
-		c = col;
-		r = row;
-		while (r < array[c].length-2 && array[c][r] == array[c][r+1]) {
-			count++;
-			r++;
-		}
-		r = row;
-		while (r > 0 && array[c][r] == array[c][r-1]) {
-			count++;
-			r--;
-		}
-		if (count >= 4) {
-			return true;
-		}
-		return false;
+		if (!Metrics.ENABLED)
+			return tracker.isWin(col * array[0].length + row);
+		long start = System.nanoTime();
+		boolean win = tracker.isWin(col * array[0].length + row);
+		IS_WIN_TIME.recordSince(start);
+		return win;
+	}
+	
+	/**
+	 * Returns true if the last piece added completed a winning run
+	 * @return true if the last piece added completed a winning run
+	 */
+	public synchronized boolean isLastMoveWin() {
+		return lastCell >= 0 && tracker.isWin(lastCell);
+	}
+	
+	/**
+	 * Returns true if the board is full and nobody has a winning run
+	 * @return true if the game is a draw
+	 */
+	public synchronized boolean isDraw() {
+		return tracker.isDraw();
+	}
+	
+	/**
+	 * Returns true if the given empty cell would complete a winning run for the given player.
+	 * The threat can only be played right away if the cells below it are all filled.
+	 * @param col the column
+	 * @param row the row
+	 * @param playerNum the player
+	 * @return true if a piece of the player's in the cell would win
+	 */
+	public synchronized boolean isThreat(int col, int row, int playerNum) {
+		return tracker.isThreat(col * array[0].length + row, playerNum);
+	}
+	
+	/**
+	 * Returns the number of empty cells that would complete a winning run for the given player
+	 * @param playerNum the player
+	 * @return the number of threats the player has
+	 */
+	public synchronized int getThreatCount(int playerNum) {
+		return tracker.getThreatCount(playerNum);
 	}
 }
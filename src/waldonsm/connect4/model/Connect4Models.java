@@ -0,0 +1,24 @@
+package waldonsm.connect4.model;
+
+/**
+ * Picks the fastest MutableConnect4Model for a board.
+ */
+public final class Connect4Models {
+
+	private Connect4Models() {
+	}
+
+	/**
+	 * Creates an empty board for searching.  Boards that fit in a single <code>long</code>
+	 * get a BitboardConnect4Model, and larger ones a MultiWordBitboardConnect4Model.
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @return the new board
+	 */
+	public static MutableConnect4Model newSearchModel(int height, int width, int winLength) {
+		if (BitboardConnect4Model.fits(height, width))
+			return new BitboardConnect4Model(height, width, winLength);
+		return new MultiWordBitboardConnect4Model(height, width, winLength);
+	}
+}
@@ -0,0 +1,203 @@
+package waldonsm.connect4.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable copy of a Connect 4 board at one moment in time.
+ * <P>
+ * Since a snapshot never changes, any number of threads can read it at once without locking,
+ * and a snapshot taken between two moves is always a consistent board.  The board is stored
+ * as one byte array per column.  Since the arrays are never changed either, the snapshot
+ * after a move is made by copying just the column the move changed, and shares every other
+ * column with the snapshot before it.
+ */
+public final class Connect4Snapshot implements Connect4Model {
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	/**
+	 * The cells, as <code>columns[col][row]</code>.  Columns may be shared with other
+	 * snapshots, so they must never be written to once the snapshot is made.
+	 */
+	private final byte[][] columns;
+	private final int pieces;
+
+	/**
+	 * Creates a snapshot of the given board.  The array is copied.
+	 * @param array the board, in the form <code>array[col][row]</code>
+	 * @param winLength the number of pieces in a row needed to win
+	 */
+	Connect4Snapshot(int[][] array, int winLength) {
+		width = array.length;
+		height = array[0].length;
+		this.winLength = winLength;
+		columns = new byte[width][height];
+		int count = 0;
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				columns[i][j] = (byte) array[i][j];
+				if (array[i][j] != EMPTY_MARK) {
+					count++;
+				}
+			}
+		}
+		pieces = count;
+	}
+
+	/**
+	 * Creates a snapshot of any Connect4Model, by reading it one cell at a time
+	 */
+	Connect4Snapshot(Connect4Model model) {
+		width = model.getWidth();
+		height = model.getHeight();
+		winLength = model.getWinLength();
+		columns = new byte[width][height];
+		int count = 0;
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				int mark = model.getValueAt(j, i);
+				columns[i][j] = (byte) mark;
+				if (mark != EMPTY_MARK) {
+					count++;
+				}
+			}
+		}
+		pieces = count;
+	}
+
+	private Connect4Snapshot(Connect4Snapshot previous, byte[][] columns, int pieces) {
+		width = previous.width;
+		height = previous.height;
+		winLength = previous.winLength;
+		this.columns = columns;
+		this.pieces = pieces;
+	}
+
+	/**
+	 * Returns a snapshot of this board with one cell changed, sharing every column but that
+	 * cell's with this snapshot
+	 * @param col the column of the cell
+	 * @param row the row of the cell
+	 * @param mark the new value of the cell
+	 * @return the new snapshot
+	 */
+	Connect4Snapshot with(int col, int row, int mark) {
+		byte[][] changed = columns.clone();
+		changed[col] = columns[col].clone();
+		int count = pieces;
+		if (changed[col][row] != EMPTY_MARK) {
+			count--;
+		}
+		if (mark != EMPTY_MARK) {
+			count++;
+		}
+		changed[col][row] = (byte) mark;
+		return new Connect4Snapshot(this, changed, count);
+	}
+
+	/**
+	 * Returns the number of pieces on the board
+	 * @return the number of pieces on the board
+	 */
+	public int getPieceCount() {
+		return pieces;
+	}
+
+	/**
+	 * Returns this snapshot, since it is already immutable
+	 * @return this snapshot
+	 */
+	public Connect4Snapshot getSnapshot() {
+		return this;
+	}
+
+	/**
+	 * Returns a COPY of the board.  The array should be accessed in the form
+	 * <code>array[col][row]</code>.
+	 * @return a copy of the board.
+	 */
+	public int[][] getArray() {
+		int[][] arr = new int[width][height];
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				arr[i][j] = columns[i][j];
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * Returns the number of rows in the connect 4 board
+	 * @return the number of rows in the connect 4 board
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of columns in the Connect 4 board
+	 * @return the number of columns in the Connect 4 board
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win
+	 * @return the number of pieces in a row needed to win
+	 */
+	public int getWinLength() {
+		return winLength;
+	}
+
+	/**
+	 * Gets the value at the row and column specified
+	 * @param row the row
+	 * @param col the column
+	 * @return the value, which will be either PLAYER1_MARK, PLAYER2_MARK, or EMPTY_MARK
+	 */
+	public int getValueAt(int row, int col) {
+		return columns[col][row];
+	}
+
+	/**
+	 * Returns true if a piece can be added to the given column (i.e. if the column is not full)
+	 * @param column the column in question
+	 * @return true if a piece can be added to the column
+	 */
+	public boolean canAddPiece(int column) {
+		return columns[column][height - 1] == EMPTY_MARK;
+	}
+
+	/**
+	 * Returns a list of all the columns with empty top spaces which would be valid moves
+	 * @return a list of all the columns with empty top spaces which would be valid moves
+	 */
+	public List<Integer> getAvailableMoves() {
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < width; i++) {
+			if (canAddPiece(i)) {
+				list.add(i);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Fills the given array with all the columns with empty top spaces which would be valid
+	 * moves, in order, and returns how many there are.
+	 * @param moves the array to fill, which must have at least getWidth() elements
+	 * @return the number of columns written to the array
+	 */
+	public int getAvailableMoves(int[] moves) {
+		int count = 0;
+		for (int i = 0; i < width; i++) {
+			if (canAddPiece(i)) {
+				moves[count++] = i;
+			}
+		}
+		return count;
+	}
+}
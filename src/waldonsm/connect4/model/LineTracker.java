@@ -0,0 +1,234 @@
+package waldonsm.connect4.model;
+
+import java.util.Arrays;
+
+/**
+ * Keeps count of how many pieces each player has in every winning line as pieces are added
+ * and removed, so that questions about wins and threats never need a scan of the board.
+ * <P>
+ * A threat is an empty cell that would complete a line for a player: the line holds
+ * <code>length - 1</code> of that player's pieces and none of the other player's.  For every
+ * empty cell the tracker knows how many lines make it a threat for each player.
+ * <P>
+ * Adding or removing a piece costs time in proportion to the number of lines through its
+ * cell, which depends only on the win length, not on the size of the board.  The tracker does
+ * not check that moves are legal; it trusts its owner to only add pieces to empty cells and
+ * only remove pieces that are there.
+ */
+public final class LineTracker {
+
+	private final WinningLines lines;
+	private final int length;
+	private final int[] lineCells;
+	private final int[] cellLineStart;
+	private final int[] cellLines;
+
+	/**
+	 * The owner of each cell
+	 */
+	private final int[] cells;
+	/**
+	 * The number of pieces of each player in each line, indexed by player mark then line
+	 */
+	private final int[][] counts = new int[3][];
+	/**
+	 * The number of lines that make each cell a threat, indexed by player mark then cell
+	 */
+	private final int[][] threats = new int[3][];
+	/**
+	 * The number of cells that are threats, indexed by player mark
+	 */
+	private final int[] threatCells = new int[3];
+	/**
+	 * The number of complete lines, indexed by player mark
+	 */
+	private final int[] wins = new int[3];
+	private int filled;
+
+	/**
+	 * Creates a new tracker for an empty board
+	 * @param lines the winning lines of the board
+	 */
+	public LineTracker(WinningLines lines) {
+		this.lines = lines;
+		length = lines.getLength();
+		lineCells = lines.getLineCells();
+		cellLineStart = lines.getCellLineStart();
+		cellLines = lines.getCellLines();
+		cells = new int[lines.getWidth() * lines.getHeight()];
+		for (int mark = Connect4Model.PLAYER1_MARK; mark <= Connect4Model.PLAYER2_MARK; mark++) {
+			counts[mark] = new int[lines.getLineCount()];
+			threats[mark] = new int[cells.length];
+		}
+	}
+
+	/**
+	 * Records a piece added to the given cell
+	 * @param cell the cell, numbered as in WinningLines
+	 * @param player the player who owns the piece
+	 */
+	public void add(int cell, int player) {
+		int other = 3 - player;
+		int[] mine = counts[player];
+		int[] theirs = counts[other];
+		cells[cell] = player;
+		filled++;
+		for (int i = cellLineStart[cell], end = cellLineStart[cell + 1]; i < end; i++) {
+			int line = cellLines[i];
+			int count = ++mine[line];
+			if (theirs[line] == 0) {
+				if (count == length) {
+					// this cell was the line's threat, and now it's a win
+					removeThreat(player, cell);
+					wins[player]++;
+				} else if (count == length - 1) {
+					addThreat(player, emptyCell(line));
+				}
+			} else if (count == 1 && theirs[line] == length - 1) {
+				// this cell was the other player's threat, and now it's blocked
+				removeThreat(other, cell);
+			}
+		}
+	}
+
+	/**
+	 * Records a piece removed from the given cell
+	 * @param cell the cell, numbered as in WinningLines
+	 * @param player the player who owned the piece
+	 */
+	public void remove(int cell, int player) {
+		int other = 3 - player;
+		int[] mine = counts[player];
+		int[] theirs = counts[other];
+		cells[cell] = Connect4Model.EMPTY_MARK;
+		filled--;
+		for (int i = cellLineStart[cell], end = cellLineStart[cell + 1]; i < end; i++) {
+			int line = cellLines[i];
+			int count = --mine[line];
+			if (theirs[line] == 0) {
+				if (count == length - 1) {
+					wins[player]--;
+					addThreat(player, cell);
+				} else if (count == length - 2) {
+					// the line had one empty cell besides this one, and it's no longer a threat
+					removeThreat(player, emptyCellExcept(line, cell));
+				}
+			} else if (count == 0 && theirs[line] == length - 1) {
+				addThreat(other, cell);
+			}
+		}
+	}
+
+	/**
+	 * Empties the board
+	 */
+	public void clear() {
+		Arrays.fill(cells, Connect4Model.EMPTY_MARK);
+		for (int mark = Connect4Model.PLAYER1_MARK; mark <= Connect4Model.PLAYER2_MARK; mark++) {
+			Arrays.fill(counts[mark], 0);
+			Arrays.fill(threats[mark], 0);
+			threatCells[mark] = 0;
+			wins[mark] = 0;
+		}
+		filled = 0;
+	}
+
+	private void addThreat(int player, int cell) {
+		if (threats[player][cell]++ == 0) {
+			threatCells[player]++;
+		}
+	}
+
+	private void removeThreat(int player, int cell) {
+		if (--threats[player][cell] == 0) {
+			threatCells[player]--;
+		}
+	}
+
+	/**
+	 * Returns the only empty cell of a line that has exactly one
+	 */
+	private int emptyCell(int line) {
+		return emptyCellExcept(line, -1);
+	}
+
+	private int emptyCellExcept(int line, int except) {
+		for (int k = line * length, end = k + length; k < end; k++) {
+			int cell = lineCells[k];
+			if (cell != except && cells[cell] == Connect4Model.EMPTY_MARK)
+				return cell;
+		}
+		throw new IllegalStateException("Line " + line + " has no empty cell");
+	}
+
+	/**
+	 * Returns true if the piece in the given cell is part of a complete line
+	 * @param cell the cell, numbered as in WinningLines
+	 * @return true if the piece in the given cell is part of a complete line
+	 */
+	public boolean isWin(int cell) {
+		int player = cells[cell];
+		if (player == Connect4Model.EMPTY_MARK)
+			return false;
+		int[] mine = counts[player];
+		for (int i = cellLineStart[cell], end = cellLineStart[cell + 1]; i < end; i++) {
+			if (mine[cellLines[i]] == length)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the given player has a complete line anywhere on the board
+	 * @param player the player
+	 * @return true if the given player has a complete line
+	 */
+	public boolean hasWon(int player) {
+		return wins[player] > 0;
+	}
+
+	/**
+	 * Returns true if the board is full and nobody has won
+	 * @return true if the game is a draw
+	 */
+	public boolean isDraw() {
+		return filled == cells.length && wins[Connect4Model.PLAYER1_MARK] == 0 && wins[Connect4Model.PLAYER2_MARK] == 0;
+	}
+
+	/**
+	 * Returns true if a piece of the given player's in the given empty cell would complete a line
+	 * @param cell the cell, numbered as in WinningLines
+	 * @param player the player
+	 * @return true if the cell is a threat for the player
+	 */
+	public boolean isThreat(int cell, int player) {
+		return threats[player][cell] > 0;
+	}
+
+	/**
+	 * Returns the number of empty cells that are threats for the given player
+	 * @param player the player
+	 * @return the number of threats the player has
+	 */
+	public int getThreatCount(int player) {
+		return threatCells[player];
+	}
+
+	/**
+	 * Returns the number of pieces the given player has in the given line
+	 * @param line the line, numbered as in WinningLines
+	 * @param player the player
+	 * @return the number of pieces the player has in the line
+	 */
+	public int getCount(int line, int player) {
+		return counts[player][line];
+	}
+
+	/**
+	 * Returns the winning lines this tracker counts
+	 * @return the winning lines this tracker counts
+	 */
+	public WinningLines getLines() {
+		return lines;
+	}
+}
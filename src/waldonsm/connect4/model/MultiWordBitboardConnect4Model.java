@@ -0,0 +1,372 @@
+package waldonsm.connect4.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A MutableConnect4Model for boards of any size, with any win length.
+ * <P>
+ * Each player's pieces are kept as a bitboard spread over as many <code>long</code> words as
+ * it takes, with the cell at column <code>c</code>, row <code>r</code> at bit
+ * <code>c * height + r</code>.  Wins and threats come from a LineTracker, so adding or taking
+ * back a piece costs time in proportion to the number of lines through its cell, which
+ * depends on the win length and not on the size of the board.  This makes it the model to
+ * search with when a board is too big for a BitboardConnect4Model.
+ * <P>
+ * Like BitboardConnect4Model, this class is not synchronized, since it is meant to be owned
+ * by a single searching thread.
+ */
+public final class MultiWordBitboardConnect4Model implements MutableConnect4Model {
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	/**
+	 * The Zobrist keys for each player mark and cell
+	 */
+	private final long[][] zobrist;
+	/**
+	 * The pieces of each player, indexed by player mark then word.  Index EMPTY_MARK is unused.
+	 */
+	private final long[][] boards = new long[3][];
+	private final int[] pieceCounts = new int[3];
+	private final LineTracker tracker;
+	/**
+	 * The number of pieces in each column
+	 */
+	private final int[] heights;
+	/**
+	 * The columns played, in order, so that they can be taken back
+	 */
+	private final int[] moves;
+	private int moveCount;
+	/**
+	 * The Zobrist hash of the current position, updated as pieces are added and taken back
+	 */
+	private long hash;
+	/**
+	 * The Zobrist hash of the current position mirrored left to right
+	 */
+	private long mirrorHash;
+
+	/**
+	 * Creates a new, empty model with the given width, height and win length
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 */
+	public MultiWordBitboardConnect4Model(int height, int width, int winLength) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("A " + width + "x" + height + " board has no cells");
+		if (winLength < 2)
+			throw new IllegalArgumentException("Win length must be at least 2");
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		int cells = width * height;
+		zobrist = Zobrist.keys(cells);
+		boards[PLAYER1_MARK] = new long[(cells + 63) >>> 6];
+		boards[PLAYER2_MARK] = new long[(cells + 63) >>> 6];
+		tracker = new LineTracker(new WinningLines(height, width, winLength));
+		heights = new int[width];
+		moves = new int[cells];
+	}
+
+	/**
+	 * Replaces the contents of this board with the contents of the given model, which must
+	 * have the same size.  The move history is not known, so after this call nothing can be
+	 * taken back with undo() until more pieces are added.
+	 * @param model the model to copy
+	 */
+	public void load(Connect4Model model) {
+		if (model.getWidth() != width || model.getHeight() != height)
+			throw new IllegalArgumentException("Board sizes do not match");
+		clear();
+		for (int col = 0; col < width; col++) {
+			int row = 0;
+			int mark;
+			while (row < height && (mark = model.getValueAt(row, col)) != EMPTY_MARK) {
+				place(col, row, mark);
+				row++;
+			}
+			heights[col] = row;
+		}
+	}
+
+	/**
+	 * Adds a piece to the given column if it can
+	 * @param column the column to add to
+	 * @param playerNum the player who is adding to the column
+	 * @return the row in that column that the piece wound up on, or -1 if the column is full
+	 */
+	public int addPiece(int column, int playerNum) {
+		int row = heights[column];
+		if (row == height)
+			return -1;
+		place(column, row, playerNum);
+		heights[column] = row + 1;
+		moves[moveCount++] = column;
+		return row;
+	}
+
+	/**
+	 * Takes back the last piece added with addPiece
+	 * @return the column the piece was taken from, or -1 if there is nothing to take back
+	 */
+	public int undo() {
+		if (moveCount == 0)
+			return -1;
+		int column = moves[--moveCount];
+		int row = --heights[column];
+		int cell = column * height + row;
+		int mark = isSet(boards[PLAYER1_MARK], cell) ? PLAYER1_MARK : PLAYER2_MARK;
+		boards[mark][cell >>> 6] &= ~(1L << cell);
+		pieceCounts[mark]--;
+		hash ^= zobrist[mark][cell];
+		mirrorHash ^= zobrist[mark][(width - 1 - column) * height + row];
+		tracker.remove(cell, mark);
+		return column;
+	}
+
+	private void place(int col, int row, int mark) {
+		int cell = col * height + row;
+		boards[mark][cell >>> 6] |= 1L << cell;
+		pieceCounts[mark]++;
+		hash ^= zobrist[mark][cell];
+		mirrorHash ^= zobrist[mark][(width - 1 - col) * height + row];
+		tracker.add(cell, mark);
+	}
+
+	private static boolean isSet(long[] board, int cell) {
+		return (board[cell >>> 6] & (1L << cell)) != 0;
+	}
+
+	/**
+	 * Clears the board in preparation for a new game.
+	 */
+	public void clear() {
+		for (int mark = PLAYER1_MARK; mark <= PLAYER2_MARK; mark++) {
+			long[] board = boards[mark];
+			for (int i = 0; i < board.length; i++) {
+				board[i] = 0;
+			}
+			pieceCounts[mark] = 0;
+		}
+		for (int i = 0; i < width; i++) {
+			heights[i] = 0;
+		}
+		tracker.clear();
+		moveCount = 0;
+		hash = 0;
+		mirrorHash = 0;
+	}
+
+	/**
+	 * Returns true if the given row and column is part of a winning run
+	 * @param col the column
+	 * @param row the row
+	 * @return true if the given row and column is part of a winning run
+	 */
+	public boolean isWin(int col, int row) {
+		if (getValueAt(row, col) == EMPTY_MARK)
+			throw new IllegalArgumentException("No player has moved in this space");
+		return tracker.isWin(col * height + row);
+	}
+
+	/**
+	 * Returns true if the given player has a winning run anywhere on the board
+	 * @param playerNum the player
+	 * @return true if the given player has a winning run anywhere on the board
+	 */
+	public boolean hasWon(int playerNum) {
+		return tracker.hasWon(playerNum);
+	}
+
+	/**
+	 * Returns true if the given player could win by dropping a piece in some column right now
+	 * @param playerNum the player
+	 * @return true if the given player has a winning move
+	 */
+	public boolean hasWinningMove(int playerNum) {
+		if (tracker.getThreatCount(playerNum) == 0)
+			return false;
+		for (int col = 0; col < width; col++) {
+			if (heights[col] < height && tracker.isThreat(col * height + heights[col], playerNum))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of empty cells where the given player would complete a winning run
+	 * @param playerNum the player
+	 * @return the number of threats the player has
+	 */
+	public int getThreatCount(int playerNum) {
+		return tracker.getThreatCount(playerNum);
+	}
+
+	/**
+	 * Returns the words of the bitboard holding the given player's pieces.  The array is
+	 * shared, not copied, so it must not be changed.
+	 * @param playerNum the player
+	 * @return the bitboard holding the given player's pieces
+	 */
+	public long[] getBoard(int playerNum) {
+		return boards[playerNum];
+	}
+
+	/**
+	 * Returns the Zobrist hash of the current position.  Two positions with the same pieces in
+	 * the same places always have the same hash, however they were reached.
+	 * @return the Zobrist hash of the current position
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Returns the Zobrist hash the current position would have if it were mirrored left to
+	 * right
+	 * @return the Zobrist hash of the mirror image of the current position
+	 */
+	public long getMirrorHash() {
+		return mirrorHash;
+	}
+
+	/**
+	 * Returns the smaller of getHash() and getMirrorHash(), which is the same for a position
+	 * and its mirror image
+	 * @return the canonical Zobrist hash of the current position
+	 */
+	public long getCanonicalHash() {
+		return Math.min(hash, mirrorHash);
+	}
+
+	/**
+	 * Returns the number of pieces the given player has on the board
+	 * @param playerNum the player
+	 * @return the number of pieces the given player has on the board
+	 */
+	public int getPieceCount(int playerNum) {
+		return pieceCounts[playerNum];
+	}
+
+	/**
+	 * Returns the number of pieces in the given column
+	 * @param column the column
+	 * @return the number of pieces in the given column
+	 */
+	public int getColumnHeight(int column) {
+		return heights[column];
+	}
+
+	/**
+	 * Returns the number of pieces that can be taken back with undo()
+	 * @return the number of pieces that can be taken back with undo()
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns an immutable copy of the board as it is right now
+	 * @return an immutable copy of the board
+	 */
+	public Connect4Snapshot getSnapshot() {
+		return new Connect4Snapshot(this);
+	}
+
+	/**
+	 * Returns a COPY of the board.  The array should be accessed in the form
+	 * <code>array[col][row]</code>.
+	 * @return a copy of the board.
+	 */
+	public int[][] getArray() {
+		int[][] arr = new int[width][height];
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < heights[i]; j++) {
+				arr[i][j] = getValueAt(j, i);
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * Returns the number of rows in the connect 4 board
+	 * @return the number of rows in the connect 4 board
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of columns in the Connect 4 board
+	 * @return the number of columns in the Connect 4 board
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win
+	 * @return the number of pieces in a row needed to win
+	 */
+	public int getWinLength() {
+		return winLength;
+	}
+
+	/**
+	 * Gets the value at the row and column specified
+	 * @param row the row
+	 * @param col the column
+	 * @return the value, which will be either PLAYER1_MARK, PLAYER2_MARK, or EMPTY_MARK
+	 */
+	public int getValueAt(int row, int col) {
+		int cell = col * height + row;
+		if (isSet(boards[PLAYER1_MARK], cell))
+			return PLAYER1_MARK;
+		if (isSet(boards[PLAYER2_MARK], cell))
+			return PLAYER2_MARK;
+		return EMPTY_MARK;
+	}
+
+	/**
+	 * Returns true if a piece can be added to the given column (i.e. if the column is not full)
+	 * @param column the column in question
+	 * @return true if a piece can be added to the column
+	 */
+	public boolean canAddPiece(int column) {
+		return heights[column] < height;
+	}
+
+	/**
+	 * Returns a list of all the columns with empty top spaces which would be valid moves
+	 * @return a list of all the columns with empty top spaces which would be valid moves
+	 */
+	public List<Integer> getAvailableMoves() {
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < width; i++) {
+			if (heights[i] < height) {
+				list.add(i);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Fills the given array with all the columns with empty top spaces which would be valid
+	 * moves, in order, and returns how many there are.
+	 * @param moves the array to fill, which must have at least getWidth() elements
+	 * @return the number of columns written to the array
+	 */
+	public int getAvailableMoves(int[] moves) {
+		int count = 0;
+		for (int i = 0; i < width; i++) {
+			if (heights[i] < height) {
+				moves[count++] = i;
+			}
+		}
+		return count;
+	}
+}
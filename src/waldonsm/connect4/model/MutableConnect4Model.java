@@ -0,0 +1,104 @@
+package waldonsm.connect4.model;
+
+/**
+ * A Connect4Model that an AI can play moves on and take them back again, for searching the
+ * game tree in place.  The win length is whatever getWinLength() says.
+ * <P>
+ * Implementations are not expected to be thread safe.
+ */
+public interface MutableConnect4Model extends Connect4Model {
+
+	/**
+	 * Adds a piece to the given column if it can
+	 * @param column the column to add to
+	 * @param playerNum the player who is adding to the column
+	 * @return the row in that column that the piece wound up on, or -1 if the column is full
+	 */
+	public int addPiece(int column, int playerNum);
+
+	/**
+	 * Takes back the last piece added with addPiece
+	 * @return the column the piece was taken from, or -1 if there is nothing to take back
+	 */
+	public int undo();
+
+	/**
+	 * Clears the board in preparation for a new game.
+	 */
+	public void clear();
+
+	/**
+	 * Replaces the contents of this board with the contents of the given model, which must
+	 * have the same size.  The move history is not known, so after this call nothing can be
+	 * taken back with undo() until more pieces are added.
+	 * @param model the model to copy
+	 */
+	public void load(Connect4Model model);
+
+	/**
+	 * Returns true if the given row and column is part of a winning run
+	 * @param col the column
+	 * @param row the row
+	 * @return true if the given row and column is part of a winning run
+	 */
+	public boolean isWin(int col, int row);
+
+	/**
+	 * Returns true if the given player has a winning run anywhere on the board
+	 * @param playerNum the player
+	 * @return true if the given player has a winning run anywhere on the board
+	 */
+	public boolean hasWon(int playerNum);
+
+	/**
+	 * Returns true if the given player could win by dropping a piece in some column right now
+	 * @param playerNum the player
+	 * @return true if the given player has a winning move
+	 */
+	public boolean hasWinningMove(int playerNum);
+
+	/**
+	 * Returns the number of empty cells where the given player would complete a winning run,
+	 * whether or not a piece can be dropped there yet
+	 * @param playerNum the player
+	 * @return the number of threats the player has
+	 */
+	public int getThreatCount(int playerNum);
+
+	/**
+	 * Returns the number of pieces the given player has on the board
+	 * @param playerNum the player
+	 * @return the number of pieces the given player has on the board
+	 */
+	public int getPieceCount(int playerNum);
+
+	/**
+	 * Returns the number of pieces in the given column
+	 * @param column the column
+	 * @return the number of pieces in the given column
+	 */
+	public int getColumnHeight(int column);
+
+	/**
+	 * Returns the Zobrist hash of the current position.  Two positions with the same pieces in
+	 * the same places always have the same hash, however they were reached.
+	 * @return the Zobrist hash of the current position
+	 */
+	public long getHash();
+
+	/**
+	 * Returns the Zobrist hash the current position would have if it were mirrored left to
+	 * right.  It is kept up to date as pieces are added and taken back, just like getHash().
+	 * @return the Zobrist hash of the mirror image of the current position
+	 */
+	public long getMirrorHash();
+
+	/**
+	 * Returns the smaller of getHash() and getMirrorHash(), which is the same for a position
+	 * and its mirror image.  Caches keyed by this hold one entry for both, so any column
+	 * stored with the key must be mirrored (<code>width - 1 - column</code>) whenever
+	 * getMirrorHash() is the smaller of the two.
+	 * @return the canonical Zobrist hash of the current position
+	 */
+	public long getCanonicalHash();
+}
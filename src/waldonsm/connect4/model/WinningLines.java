@@ -0,0 +1,158 @@
+package waldonsm.connect4.model;
+
+/**
+ * Every line of cells on a board that could hold a winning run, worked out once for a board
+ * size and stored in flat arrays.
+ * <P>
+ * Cells are numbered column by column, so the cell at column <code>c</code>, row
+ * <code>r</code> is number <code>c * height + r</code>.  Line <code>l</code> is made of cells
+ * <code>getLineCells()[l * length]</code> through
+ * <code>getLineCells()[l * length + length - 1]</code>.  The lines through cell
+ * <code>i</code> are <code>getCellLines()[getCellLineStart()[i]]</code> up to (but not
+ * including) <code>getCellLines()[getCellLineStart()[i + 1]]</code>.
+ * <P>
+ * The arrays are shared, not copied, so they must not be changed.
+ */
+public final class WinningLines {
+
+	private final int width;
+	private final int height;
+	private final int length;
+	private final int lineCount;
+	private final int[] lineCells;
+	private final int[] cellLineStart;
+	private final int[] cellLines;
+
+	/**
+	 * Works out every line of the given length on a board of the given size
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param length the number of pieces in a row needed to win
+	 */
+	public WinningLines(int height, int width, int length) {
+		this.width = width;
+		this.height = height;
+		this.length = length;
+		// right, up, up and right, down and right
+		int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+		int count = 0;
+		for (int[] d : directions) {
+			for (int c = 0; c < width; c++) {
+				for (int r = 0; r < height; r++) {
+					if (fits(c, r, d)) {
+						count++;
+					}
+				}
+			}
+		}
+		lineCount = count;
+		lineCells = new int[count * length];
+		int[] perCell = new int[width * height];
+		int line = 0;
+		for (int[] d : directions) {
+			for (int c = 0; c < width; c++) {
+				for (int r = 0; r < height; r++) {
+					if (!fits(c, r, d))
+						continue;
+					for (int k = 0; k < length; k++) {
+						int cell = (c + k * d[0]) * height + r + k * d[1];
+						lineCells[line * length + k] = cell;
+						perCell[cell]++;
+					}
+					line++;
+				}
+			}
+		}
+
+		cellLineStart = new int[width * height + 1];
+		for (int i = 0; i < perCell.length; i++) {
+			cellLineStart[i + 1] = cellLineStart[i] + perCell[i];
+		}
+		cellLines = new int[cellLineStart[perCell.length]];
+		int[] next = new int[perCell.length];
+		for (int l = 0; l < lineCount; l++) {
+			for (int k = 0; k < length; k++) {
+				int cell = lineCells[l * length + k];
+				cellLines[cellLineStart[cell] + next[cell]++] = l;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if a line starting at the given cell and going in the given direction
+	 * stays on the board
+	 */
+	private boolean fits(int c, int r, int[] d) {
+		int endC = c + (length - 1) * d[0];
+		int endR = r + (length - 1) * d[1];
+		return endC >= 0 && endC < width && endR >= 0 && endR < height;
+	}
+
+	/**
+	 * Returns the number of the cell at the given column and row
+	 * @param col the column
+	 * @param row the row
+	 * @return the number of the cell
+	 */
+	public int cell(int col, int row) {
+		return col * height + row;
+	}
+
+	/**
+	 * Returns the number of columns on the board
+	 * @return the number of columns on the board
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the number of rows on the board
+	 * @return the number of rows on the board
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win
+	 * @return the number of pieces in a row needed to win
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of lines on the board
+	 * @return the number of lines on the board
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Returns the cells of every line, <code>getLength()</code> cells per line
+	 * @return the cells of every line
+	 */
+	public int[] getLineCells() {
+		return lineCells;
+	}
+
+	/**
+	 * Returns where each cell's lines start in getCellLines(), with one extra element at the
+	 * end holding the total
+	 * @return where each cell's lines start in getCellLines()
+	 */
+	public int[] getCellLineStart() {
+		return cellLineStart;
+	}
+
+	/**
+	 * Returns the lines through each cell, grouped by cell
+	 * @return the lines through each cell
+	 */
+	public int[] getCellLines() {
+		return cellLines;
+	}
+}
@@ -0,0 +1,36 @@
+package waldonsm.connect4.model;
+
+/**
+ * Makes the random keys used for Zobrist hashing.  Keys come from a fixed seed, so hashes are
+ * the same from one run to the next.
+ */
+final class Zobrist {
+
+	private Zobrist() {
+	}
+
+	/**
+	 * Returns the keys for each player mark and cell
+	 * @param cells the number of cells (or bits) that need keys
+	 * @return the keys, indexed by player mark then cell.  Index EMPTY_MARK is all zero.
+	 */
+	static long[][] keys(int cells) {
+		long[][] keys = new long[3][cells];
+		for (int mark = Connect4Model.PLAYER1_MARK; mark <= Connect4Model.PLAYER2_MARK; mark++) {
+			for (int i = 0; i < cells; i++) {
+				keys[mark][i] = splitMix((long) mark << 32 | i);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * The splitmix64 mixing function
+	 */
+	private static long splitMix(long x) {
+		long z = 0x5DEECE66DL + (x + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,295 @@
+package waldonsm.connect4.record;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a game record file written by GameRecordWriter, one game at a time.
+ * <P>
+ * The file is memory-mapped a window at a time rather than read, so files far bigger than
+ * the heap (or than the 2 GB a single mapping can hold) can be scanned, and the operating
+ * system's page cache does the buffering.  Nothing is allocated per game: the moves of the
+ * current game are decoded into an array that is reused for the next one.
+ * <P>
+ * Typical use:
+ * <pre>
+ * GameRecordReader reader = GameRecordReader.open(file);
+ * try {
+ *     while (reader.next()) {
+ *         ... reader.getMoveCount(), reader.getMove(i), reader.getResult() ...
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ * This class is not thread safe.
+ */
+public class GameRecordReader implements Closeable {
+
+	/**
+	 * How much of the file is mapped at once
+	 */
+	private static final long WINDOW_SIZE = 64L << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final String player1;
+	private final String player2;
+	private final int maxRecordSize;
+
+	private MappedByteBuffer window;
+	/**
+	 * Where in the file the window starts
+	 */
+	private long windowStart;
+
+	private final int[] moves;
+	private int moveCount;
+	private int result;
+	private long games;
+
+	private GameRecordReader(RandomAccessFile file) throws IOException {
+		this.file = file;
+		channel = file.getChannel();
+		fileSize = channel.size();
+		map(0);
+		for (int i = 0; i < GameRecordWriter.MAGIC.length; i++) {
+			if (window.remaining() == 0 || window.get() != GameRecordWriter.MAGIC[i])
+				throw new IOException("Not a game record file");
+		}
+		if (window.remaining() < 6)
+			throw new IOException("Game record file is truncated");
+		int version = window.get();
+		if (version != GameRecordWriter.VERSION)
+			throw new IOException("Unsupported game record version " + version);
+		width = window.get() & 0xFF;
+		height = window.get() & 0xFF;
+		winLength = window.get() & 0xFF;
+		player1 = readUTF();
+		player2 = readUTF();
+		maxRecordSize = GameRecordWriter.maxRecordSize(width, height);
+		moves = new int[width * height];
+	}
+
+	/**
+	 * Opens the given game record file and reads its header
+	 * @param file the file
+	 * @return a reader positioned before the first game
+	 * @throws IOException if the file can't be read or is not a game record file
+	 */
+	public static GameRecordReader open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return new GameRecordReader(raf);
+		} catch (IOException ex) {
+			raf.close();
+			throw ex;
+		}
+	}
+
+	private String readUTF() throws IOException {
+		if (window.remaining() < 2)
+			throw new IOException("Game record file is truncated");
+		int length = window.getShort(window.position()) & 0xFFFF;
+		if (window.remaining() < 2 + length)
+			throw new IOException("Game record file is truncated");
+		byte[] bytes = new byte[2 + length];
+		window.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+	}
+
+	/**
+	 * Maps the window starting at the given place in the file
+	 */
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+	}
+
+	/**
+	 * Moves on to the next game in the file
+	 * @return true if there was another game, or false at the end of the file
+	 * @throws IOException if the file can't be read or ends in the middle of a game
+	 */
+	public boolean next() throws IOException {
+		long position = windowStart + window.position();
+		if (position == fileSize)
+			return false;
+		// slide the window along if the whole game might not be in it
+		if (window.remaining() < maxRecordSize && windowStart + window.limit() < fileSize) {
+			map(position);
+		}
+		try {
+			int count = readVarInt();
+			if (count > moves.length)
+				throw new IOException("Corrupt game record: " + count + " moves");
+			result = window.get();
+			if (width <= GameRecordWriter.MAX_PACKED_WIDTH) {
+				for (int i = 0; i < count; i += 2) {
+					int b = window.get();
+					moves[i] = b & 0x0F;
+					if (i + 1 < count) {
+						moves[i + 1] = (b >>> 4) & 0x0F;
+					}
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					moves[i] = readVarInt();
+				}
+			}
+			moveCount = count;
+		} catch (BufferUnderflowException ex) {
+			throw new IOException("Game record file is truncated");
+		}
+		games++;
+		return true;
+	}
+
+	private int readVarInt() {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = window.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Returns the number of moves in the current game
+	 * @return the number of moves in the current game
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns one move of the current game
+	 * @param index the number of the move, starting from 0
+	 * @return the column played
+	 */
+	public int getMove(int index) {
+		return moves[index];
+	}
+
+	/**
+	 * Returns the moves of the current game.  The array is reused for the next game, and only
+	 * the first getMoveCount() elements are moves.
+	 * @return the moves of the current game
+	 */
+	public int[] getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the result of the current game
+	 * @return UNFINISHED, PLAYER1_WON, PLAYER2_WON or DRAW, as defined in GameRecordWriter
+	 */
+	public int getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns the number of games read so far
+	 * @return the number of games read so far
+	 */
+	public long getGamesRead() {
+		return games;
+	}
+
+	/**
+	 * Returns the width of the board the games were played on
+	 * @return the width of the board
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the board the games were played on
+	 * @return the height of the board
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of pieces in a row needed to win the games
+	 * @return the win length
+	 */
+	public int getWinLength() {
+		return winLength;
+	}
+
+	/**
+	 * Returns the name of player 1, as given to the writer
+	 * @return the name of player 1
+	 */
+	public String getPlayer1() {
+		return player1;
+	}
+
+	/**
+	 * Returns the name of player 2, as given to the writer
+	 * @return the name of player 2
+	 */
+	public String getPlayer2() {
+		return player2;
+	}
+
+	/**
+	 * Closes the file.  The mapped window stays valid until it is garbage collected.
+	 * @throws IOException if the file can't be closed
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Scans a game record file from the command line, and prints how the games ended.
+	 * <P>
+	 * Usage: <code>GameRecordReader file</code>
+	 * @param args the command line arguments
+	 * @throws IOException if the file can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: GameRecordReader file");
+			System.exit(1);
+		}
+		long start = System.nanoTime();
+		long[] results = new long[4];
+		long moves = 0;
+		GameRecordReader reader = open(new File(args[0]));
+		try {
+			while (reader.next()) {
+				results[reader.getResult() & 3]++;
+				moves += reader.getMoveCount();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			long games = reader.getGamesRead();
+			System.out.printf("%dx%d, %d in a row, %s vs %s%n", reader.getWidth(), reader.getHeight(),
+					reader.getWinLength(), reader.getPlayer1(), reader.getPlayer2());
+			System.out.printf("%d games in %.1f s (%.0f games/s), %.1f moves a game%n", games, seconds, games / seconds,
+					games == 0 ? 0.0 : (double) moves / games);
+			System.out.printf("%s won %d, %s won %d, %d draws, %d unfinished%n", reader.getPlayer1(),
+					results[GameRecordWriter.PLAYER1_WON], reader.getPlayer2(), results[GameRecordWriter.PLAYER2_WON],
+					results[GameRecordWriter.DRAW], results[GameRecordWriter.UNFINISHED]);
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package waldonsm.connect4.record;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * Writes games to a compact binary game record file, one game at a time, so any number of
+ * games can be written without keeping them in memory.
+ * <P>
+ * The file starts with a header: the bytes <code>C4GR</code>, a version byte, the board
+ * width, height and win length as bytes, and the names of the two players as written by
+ * DataOutput.writeUTF().  Each game is then written as:
+ * <ul>
+ * <li>the number of moves, as a varint</li>
+ * <li>a result byte: one of UNFINISHED, PLAYER1_WON, PLAYER2_WON or DRAW</li>
+ * <li>the columns played, in order.  On boards up to 16 columns wide the columns are packed
+ * two to a byte, the first in the low 4 bits; on wider boards each column is a varint.</li>
+ * </ul>
+ * A varint is 7 bits per byte, low bits first, with the high bit set on every byte but the
+ * last.  A typical 7x6 game takes about 20 bytes.
+ * <P>
+ * This class is not thread safe.
+ */
+public class GameRecordWriter implements Closeable {
+
+	/**
+	 * The first bytes of a game record file
+	 */
+	public static final byte[] MAGIC = {'C', '4', 'G', 'R'};
+	/**
+	 * The version of the file format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The result of a game that was stopped before it ended
+	 */
+	public static final int UNFINISHED = 0;
+	/**
+	 * The result of a game player 1 won
+	 */
+	public static final int PLAYER1_WON = 1;
+	/**
+	 * The result of a game player 2 won
+	 */
+	public static final int PLAYER2_WON = 2;
+	/**
+	 * The result of a game that ended with a full board
+	 */
+	public static final int DRAW = 3;
+
+	/**
+	 * The widest board whose columns are packed two to a byte
+	 */
+	static final int MAX_PACKED_WIDTH = 16;
+
+	private final DataOutputStream out;
+	private final int width;
+	private final int height;
+	private final byte[] record;
+	private final int[] moves;
+	private long games;
+
+	/**
+	 * Creates a new writer, and writes the file header
+	 * @param output where to write the games.  It is buffered by the writer.
+	 * @param width the width of the board (number of columns)
+	 * @param height the height of the board (number of rows)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @param player1 the name of player 1
+	 * @param player2 the name of player 2
+	 * @throws IOException if the header can't be written
+	 */
+	public GameRecordWriter(OutputStream output, int width, int height, int winLength, String player1, String player2)
+			throws IOException {
+		if (width > 255 || height > 255 || winLength > 255)
+			throw new IllegalArgumentException("Board sizes and win lengths must fit in a byte");
+		out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+		this.width = width;
+		this.height = height;
+		record = new byte[maxRecordSize(width, height)];
+		moves = new int[width * height];
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(width);
+		out.writeByte(height);
+		out.writeByte(winLength);
+		out.writeUTF(player1);
+		out.writeUTF(player2);
+	}
+
+	/**
+	 * Returns the most bytes one game can take on a board of the given size
+	 */
+	static int maxRecordSize(int width, int height) {
+		int cells = width * height;
+		return 5 + 1 + (width <= MAX_PACKED_WIDTH ? (cells + 1) / 2 : 2 * cells);
+	}
+
+	/**
+	 * Writes one game
+	 * @param moves the columns played, in order
+	 * @param count the number of moves
+	 * @param result UNFINISHED, PLAYER1_WON, PLAYER2_WON or DRAW
+	 * @throws IOException if the game can't be written
+	 */
+	public void write(int[] moves, int count, int result) throws IOException {
+		if (count > width * height)
+			throw new IllegalArgumentException("A game can't have " + count + " moves");
+		int len = writeVarInt(record, 0, count);
+		record[len++] = (byte) result;
+		if (width <= MAX_PACKED_WIDTH) {
+			for (int i = 0; i < count; i += 2) {
+				int high = i + 1 < count ? moves[i + 1] : 0;
+				record[len++] = (byte) (moves[i] | (high << 4));
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				len = writeVarInt(record, len, moves[i]);
+			}
+		}
+		out.write(record, 0, len);
+		games++;
+	}
+
+	/**
+	 * Writes the game played so far on the given model, working out the result from the board
+	 * @param model the model, which must be the size this writer was made for
+	 * @throws IOException if the game can't be written
+	 */
+	public void write(Connect4ModelImpl model) throws IOException {
+		int result;
+		int count;
+		synchronized (model) {
+			count = model.getMoves(moves);
+			if (model.isLastMoveWin()) {
+				// player 1 makes the odd numbered moves
+				result = count % 2 == 1 ? PLAYER1_WON : PLAYER2_WON;
+			} else if (model.isDraw()) {
+				result = DRAW;
+			} else {
+				result = UNFINISHED;
+			}
+		}
+		write(moves, count, result);
+	}
+
+	/**
+	 * Writes a non-negative number as a varint
+	 * @return the index after the last byte written
+	 */
+	static int writeVarInt(byte[] buf, int pos, int value) {
+		while ((value & ~0x7F) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Returns the number of games written so far
+	 * @return the number of games written so far
+	 */
+	public long getGamesWritten() {
+		return games;
+	}
+
+	/**
+	 * Writes out any buffered games
+	 * @throws IOException if the games can't be written
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes out any buffered games and closes the underlying stream
+	 * @throws IOException if the games can't be written
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+}
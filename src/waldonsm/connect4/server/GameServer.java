@@ -0,0 +1,252 @@
+package waldonsm.connect4.server;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import waldonsm.connect4.ai.Connect4AIFactory;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * Hosts any number of human-vs-AI games at once in one JVM, with no GUI.
+ * <P>
+ * Each game is a GameSession with its own board and its own AI, made by the factory given to
+ * the server.  A human move is played with play(), which returns right away with a future for
+ * the AI's reply, so no thread is tied up for a session while its AI thinks or while it
+ * waits for the human.  This is what lets one server hold thousands of games.
+ * <P>
+ * AI moves are run on a fixed pool of worker threads.  At most <code>maxQueuedMoves</code>
+ * moves may be waiting for a worker; once that many are, play() refuses new moves with a
+ * RejectedExecutionException instead of queueing them, so a saturated server pushes back on
+ * its clients rather than building an ever longer backlog.  A refused move is not played, so
+ * the client can simply try it again later.
+ */
+public class GameServer {
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final Connect4AIFactory aiFactory;
+	private final ExecutorService workers;
+	/**
+	 * One permit for every AI move that may be running or waiting for a worker
+	 */
+	private final Semaphore capacity;
+	private final int maxMoves;
+
+	private final ConcurrentHashMap<Long, GameSession> sessions = new ConcurrentHashMap<Long, GameSession>();
+	private final AtomicLong nextId = new AtomicLong();
+	private final LongAdder movesPlayed = new LongAdder();
+	private final LongAdder movesRejected = new LongAdder();
+
+	/**
+	 * Creates a new server for connect 4 games
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param aiFactory makes the AI for each game
+	 * @param aiThreads the number of threads that run AI moves
+	 * @param maxQueuedMoves the number of AI moves that may wait for a thread before new
+	 * moves are refused
+	 */
+	public GameServer(int height, int width, Connect4AIFactory aiFactory, int aiThreads, int maxQueuedMoves) {
+		this(height, width, Connect4Model.DEFAULT_WIN_LENGTH, aiFactory, aiThreads, maxQueuedMoves);
+	}
+
+	/**
+	 * Creates a new server for games with the given win length
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @param aiFactory makes the AI for each game
+	 * @param aiThreads the number of threads that run AI moves
+	 * @param maxQueuedMoves the number of AI moves that may wait for a thread before new
+	 * moves are refused
+	 */
+	public GameServer(int height, int width, int winLength, Connect4AIFactory aiFactory, int aiThreads, int maxQueuedMoves) {
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		this.aiFactory = aiFactory;
+		maxMoves = aiThreads + maxQueuedMoves;
+		capacity = new Semaphore(maxMoves);
+		final AtomicInteger threadCount = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(aiThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Connect4 server AI " + threadCount.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts a new game.  The human moves first.
+	 * @return the new game
+	 */
+	public GameSession createGame() {
+		long id = nextId.getAndIncrement();
+		GameSession session = new GameSession(id, new Connect4ModelImpl(height, width, winLength), aiFactory.createAI());
+		sessions.put(id, session);
+		return session;
+	}
+
+	/**
+	 * Returns the game with the given id
+	 * @param gameId the id of the game
+	 * @return the game, or null if there is no such game
+	 */
+	public GameSession getGame(long gameId) {
+		return sessions.get(gameId);
+	}
+
+	/**
+	 * Forgets the game with the given id.  If its AI is thinking it finishes its move, but
+	 * nobody can play in the game any more.
+	 * @param gameId the id of the game
+	 */
+	public void endGame(long gameId) {
+		sessions.remove(gameId);
+	}
+
+	/**
+	 * Plays the human's move in the given game, and starts the AI choosing its reply.
+	 * <P>
+	 * The returned future completes once the AI has moved, or right away if the human's move
+	 * ended the game.  If the AI fails, or the server has been shut down so the AI can't be
+	 * run, the future completes exceptionally and the game is abandoned.
+	 * @param gameId the id of the game
+	 * @param column the column the human plays in
+	 * @return a future for the result of the move
+	 * @throws IllegalArgumentException if there is no such game or the move is illegal
+	 * @throws IllegalStateException if the game is over or the AI has not replied to the
+	 * human's last move yet
+	 * @throws RejectedExecutionException if too many AI moves are already waiting.  The
+	 * human's move is not played.
+	 */
+	public CompletableFuture<MoveResult> play(long gameId, final int column) {
+		final GameSession session = sessions.get(gameId);
+		if (session == null)
+			throw new IllegalArgumentException("No game " + gameId);
+		// take the permit first, so a refused move leaves the game untouched
+		if (!capacity.tryAcquire()) {
+			movesRejected.increment();
+			throw new RejectedExecutionException("Too many AI moves waiting");
+		}
+		final int row;
+		try {
+			row = session.playHuman(column);
+		} catch (RuntimeException ex) {
+			capacity.release();
+			throw ex;
+		}
+		movesPlayed.increment();
+		final CompletableFuture<MoveResult> result = new CompletableFuture<MoveResult>();
+		if (!session.isAIThinking()) {
+			capacity.release();
+			result.complete(new MoveResult(column, row, -1, -1, session.getStatus()));
+			return result;
+		}
+		AIMove move = new AIMove(session, column, row, result);
+		try {
+			workers.execute(move);
+		} catch (RejectedExecutionException ex) {
+			// the server has been shut down, so the AI will never reply
+			move.fail(ex);
+		}
+		return result;
+	}
+
+	/**
+	 * An AI move waiting for, or running on, a worker thread.  Whatever happens, it completes
+	 * its future and gives back its permit exactly once.
+	 */
+	private final class AIMove implements Runnable {
+		private final GameSession session;
+		private final int column;
+		private final int row;
+		private final CompletableFuture<MoveResult> result;
+
+		AIMove(GameSession session, int column, int row, CompletableFuture<MoveResult> result) {
+			this.session = session;
+			this.column = column;
+			this.row = row;
+			this.result = result;
+		}
+
+		public void run() {
+			try {
+				int[] move = session.playAI();
+				movesPlayed.increment();
+				result.complete(new MoveResult(column, row, move[0], move[1], session.getStatus()));
+			} catch (Throwable ex) {
+				// even an Error must reach the client, or it would wait for the reply forever
+				session.abandon();
+				result.completeExceptionally(ex);
+			} finally {
+				capacity.release();
+			}
+		}
+
+		/**
+		 * Gives up on a move that will never be run, abandoning its game
+		 */
+		void fail(Throwable cause) {
+			capacity.release();
+			session.abandon();
+			result.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Returns the number of games being hosted
+	 * @return the number of games being hosted
+	 */
+	public int getGameCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Returns the number of AI moves running or waiting for a thread
+	 * @return the number of AI moves running or waiting for a thread
+	 */
+	public int getPendingMoves() {
+		return maxMoves - capacity.availablePermits();
+	}
+
+	/**
+	 * Returns the number of moves played by humans and AIs so far
+	 * @return the number of moves played so far
+	 */
+	public long getMovesPlayed() {
+		return movesPlayed.sum();
+	}
+
+	/**
+	 * Returns the number of human moves refused because the AI threads were too busy
+	 * @return the number of moves refused
+	 */
+	public long getMovesRejected() {
+		return movesRejected.sum();
+	}
+
+	/**
+	 * Stops the AI threads.  Moves being worked on are interrupted, and complete however
+	 * their AI handles that.  Moves still waiting for a thread are never run: their futures
+	 * complete exceptionally and their games are abandoned.
+	 */
+	public void shutdown() {
+		List<Runnable> waiting = workers.shutdownNow();
+		for (Runnable move : waiting) {
+			((AIMove) move).fail(new RejectedExecutionException("The server was shut down"));
+		}
+	}
+}
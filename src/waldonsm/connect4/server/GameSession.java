@@ -0,0 +1,161 @@
+package waldonsm.connect4.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import waldonsm.connect4.ai.Connect4AI;
+import waldonsm.connect4.metrics.LatencyHistogram;
+import waldonsm.connect4.metrics.Metrics;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+import waldonsm.connect4.model.Connect4Snapshot;
+
+/**
+ * One game between a human and an AI hosted by a GameServer.  Every session has its own
+ * board and its own AI, so sessions never share state.  The human is always player 1.
+ * <P>
+ * All access to a session's state is synchronized on the session.
+ */
+public final class GameSession {
+
+	private static final LatencyHistogram THINK_TIME = Metrics.histogram("server.think");
+	private static final LongAdder MOVES = Metrics.counter("server.moves");
+
+	/**
+	 * The code for a game that is still being played
+	 */
+	public static final int IN_PROGRESS = 0;
+	/**
+	 * The code for a game the human won
+	 */
+	public static final int HUMAN_WON = 1;
+	/**
+	 * The code for a game the AI won
+	 */
+	public static final int AI_WON = 2;
+	/**
+	 * The code for a game that ended with a full board
+	 */
+	public static final int DRAW = 3;
+	/**
+	 * The code for a game that was stopped because the AI failed
+	 */
+	public static final int ABANDONED = 4;
+
+	private final long id;
+	private final Connect4ModelImpl model;
+	private final Connect4AI ai;
+	private int status = IN_PROGRESS;
+	/**
+	 * True while the AI is choosing its reply, when the human may not move
+	 */
+	private boolean aiThinking;
+
+	GameSession(long id, Connect4ModelImpl model, Connect4AI ai) {
+		this.id = id;
+		this.model = model;
+		this.ai = ai;
+	}
+
+	/**
+	 * Plays the human's move
+	 * @return the row the piece landed on
+	 * @throws IllegalStateException if it isn't the human's turn
+	 * @throws IllegalArgumentException if the column is full
+	 */
+	synchronized int playHuman(int column) {
+		if (status != IN_PROGRESS)
+			throw new IllegalStateException("Game " + id + " is over");
+		if (aiThinking)
+			throw new IllegalStateException("The AI is still choosing its move in game " + id);
+		if (column < 0 || column >= model.getWidth() || !model.canAddPiece(column))
+			throw new IllegalArgumentException("Can't play in column " + column);
+		int row = model.addPiece(column, Connect4Model.PLAYER1_MARK);
+		updateStatus(HUMAN_WON);
+		aiThinking = status == IN_PROGRESS;
+		return row;
+	}
+
+	/**
+	 * Has the AI choose and play its move.  Called on an AI worker thread, once for every
+	 * human move that didn't end the game.
+	 * @return the column and row the AI played
+	 */
+	int[] playAI() {
+		Connect4Snapshot board;
+		synchronized (this) {
+			board = model.getSnapshot();
+		}
+		// the human can't move while the AI is thinking, so the board can't change under it
+		long start = System.nanoTime();
+		int column;
+		try {
+			column = ai.chooseColumn(board);
+		} catch (Throwable ex) {
+			abandon();
+			throw ex;
+		}
+		if (Metrics.ENABLED) {
+			THINK_TIME.recordSince(start);
+			MOVES.increment();
+		}
+		synchronized (this) {
+			aiThinking = false;
+			if (column < 0 || column >= model.getWidth() || !model.canAddPiece(column)) {
+				status = ABANDONED;
+				throw new IllegalStateException("AI chose the illegal column " + column + " in game " + id);
+			}
+			int row = model.addPiece(column, Connect4Model.PLAYER2_MARK);
+			updateStatus(AI_WON);
+			return new int[] {column, row};
+		}
+	}
+
+	/**
+	 * Stops the game because the AI failed or could not be run, so that it is never left
+	 * waiting for an AI move that will not come
+	 */
+	synchronized void abandon() {
+		aiThinking = false;
+		status = ABANDONED;
+	}
+
+	private void updateStatus(int winStatus) {
+		if (model.isLastMoveWin()) {
+			status = winStatus;
+		} else if (model.isDraw()) {
+			status = DRAW;
+		}
+	}
+
+	/**
+	 * Returns the id the server gave this session
+	 * @return the id of this session
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the state of the game
+	 * @return IN_PROGRESS, HUMAN_WON, AI_WON, DRAW or ABANDONED
+	 */
+	public synchronized int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns true while the AI is choosing its reply to the human's last move
+	 * @return true while the AI is thinking
+	 */
+	public synchronized boolean isAIThinking() {
+		return aiThinking;
+	}
+
+	/**
+	 * Returns an immutable copy of the board as it is right now
+	 * @return an immutable copy of the board
+	 */
+	public Connect4Snapshot getSnapshot() {
+		return model.getSnapshot();
+	}
+}
@@ -0,0 +1,62 @@
+package waldonsm.connect4.server;
+
+/**
+ * What happened when a human move was played in a GameSession: where the human's piece
+ * landed, the AI's reply (if the game wasn't already over), and the state of the game after.
+ */
+public final class MoveResult {
+
+	private final int column;
+	private final int row;
+	private final int aiColumn;
+	private final int aiRow;
+	private final int status;
+
+	MoveResult(int column, int row, int aiColumn, int aiRow, int status) {
+		this.column = column;
+		this.row = row;
+		this.aiColumn = aiColumn;
+		this.aiRow = aiRow;
+		this.status = status;
+	}
+
+	/**
+	 * Returns the column the human played in
+	 * @return the column the human played in
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * Returns the row the human's piece landed on
+	 * @return the row the human's piece landed on
+	 */
+	public int getRow() {
+		return row;
+	}
+
+	/**
+	 * Returns the column the AI played in reply
+	 * @return the column the AI played, or -1 if the human's move ended the game
+	 */
+	public int getAIColumn() {
+		return aiColumn;
+	}
+
+	/**
+	 * Returns the row the AI's piece landed on
+	 * @return the row the AI's piece landed on, or -1 if the human's move ended the game
+	 */
+	public int getAIRow() {
+		return aiRow;
+	}
+
+	/**
+	 * Returns the state of the game after both moves
+	 * @return one of the GameSession status codes
+	 */
+	public int getStatus() {
+		return status;
+	}
+}
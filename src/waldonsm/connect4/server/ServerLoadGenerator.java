@@ -0,0 +1,214 @@
+package waldonsm.connect4.server;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import waldonsm.connect4.ai.Connect4AI;
+import waldonsm.connect4.ai.Connect4AIFactory;
+import waldonsm.connect4.ai.EvaluationCache;
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.ai.StupidAI;
+import waldonsm.connect4.metrics.LatencyHistogram;
+
+/**
+ * Puts load on a GameServer by playing many games against it at once, with simulated humans
+ * who play random moves as soon as the AI has replied, and reports how long each move took.
+ * <P>
+ * The simulated humans are driven by the futures the server returns, so they need no
+ * threads of their own.  A move the server refuses is tried again a millisecond later.
+ * Latency is measured from the call to play() until the AI's reply is known, and does not
+ * include time spent waiting to retry a refused move.  Latencies go into a LatencyHistogram,
+ * so memory use does not grow with the number of games played.
+ */
+public class ServerLoadGenerator {
+
+	/**
+	 * How long to wait before trying a refused move again, in milliseconds
+	 */
+	private static final long RETRY_MILLIS = 1;
+
+	private final GameServer server;
+	private final int games;
+	private final ScheduledExecutorService retries;
+
+	private final AtomicInteger started = new AtomicInteger();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final LatencyHistogram latencies = new LatencyHistogram("server.moveLatency");
+	private final CountDownLatch done;
+
+	/**
+	 * Creates a new load generator
+	 * @param server the server to play against
+	 * @param games the total number of games to play
+	 */
+	public ServerLoadGenerator(GameServer server, int games) {
+		this.server = server;
+		this.games = games;
+		done = new CountDownLatch(games);
+		retries = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Load generator retries");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Plays all the games, keeping the given number going at once, and waits for them to end
+	 * @param concurrentGames the number of games to play at once
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void run(int concurrentGames) throws InterruptedException {
+		for (int i = 0; i < concurrentGames; i++) {
+			startGame();
+		}
+		done.await();
+		retries.shutdown();
+	}
+
+	private void startGame() {
+		if (started.getAndIncrement() >= games)
+			return;
+		playMove(server.createGame());
+	}
+
+	private void endGame(GameSession session) {
+		server.endGame(session.getId());
+		done.countDown();
+		startGame();
+	}
+
+	/**
+	 * Plays a random move for the human, and the next one once the AI has replied
+	 */
+	private void playMove(final GameSession session) {
+		List<Integer> moves = session.getSnapshot().getAvailableMoves();
+		int column = moves.get(ThreadLocalRandom.current().nextInt(moves.size()));
+		final long start = System.nanoTime();
+		try {
+			server.play(session.getId(), column).whenComplete(new BiConsumer<MoveResult, Throwable>() {
+				public void accept(MoveResult result, Throwable t) {
+					if (t != null) {
+						failed.incrementAndGet();
+						endGame(session);
+						return;
+					}
+					latencies.recordSince(start);
+					if (result.getStatus() == GameSession.IN_PROGRESS) {
+						playMove(session);
+					} else {
+						endGame(session);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			retried.incrementAndGet();
+			retries.schedule(new Runnable() {
+				public void run() {
+					playMove(session);
+				}
+			}, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Returns the histogram of the move latencies measured so far, in nanoseconds
+	 * @return the move latencies
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Returns the number of moves the server refused and that had to be tried again
+	 * @return the number of moves retried
+	 */
+	public long getRetries() {
+		return retried.get();
+	}
+
+	/**
+	 * Returns the number of games that ended because the server failed a move
+	 * @return the number of games that failed
+	 */
+	public long getFailures() {
+		return failed.get();
+	}
+
+	/**
+	 * Makes an AI factory from a short description: <code>random</code> for StupidAI, or
+	 * <code>negamax:N</code> for a NegamaxAI that thinks for N milliseconds a move.  Every
+	 * game gets its own AI, so each NegamaxAI gets a small (1 MB) table, but they all share
+	 * one EvaluationCache so that positions another game has already settled aren't searched
+	 * again.
+	 * @param spec the description of the AI
+	 * @return a factory for the AI described
+	 */
+	public static Connect4AIFactory parseAI(String spec) {
+		if (spec.equals("random")) {
+			return new Connect4AIFactory() {
+				public Connect4AI createAI() {
+					return new StupidAI();
+				}
+			};
+		}
+		if (spec.startsWith("negamax")) {
+			final long millis = spec.startsWith("negamax:") ? Long.parseLong(spec.substring(8)) : 10;
+			final EvaluationCache cache = new EvaluationCache(16);
+			return new Connect4AIFactory() {
+				public Connect4AI createAI() {
+					NegamaxAI ai = new NegamaxAI(millis, 1);
+					ai.setEvaluationCache(cache);
+					return ai;
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown AI: " + spec);
+	}
+
+	/**
+	 * Runs a load test from the command line.
+	 * <P>
+	 * Usage: <code>ServerLoadGenerator games concurrentGames ai [aiThreads [maxQueuedMoves [width height]]]</code>,
+	 * where the AI is described as in parseAI.
+	 * @param args the command line arguments
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length < 3) {
+			System.err.println("Usage: ServerLoadGenerator games concurrentGames ai [aiThreads [maxQueuedMoves [width height]]]");
+			System.exit(1);
+		}
+		int games = Integer.parseInt(args[0]);
+		int concurrent = Integer.parseInt(args[1]);
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int queued = args.length > 4 ? Integer.parseInt(args[4]) : 4 * threads;
+		int width = args.length > 6 ? Integer.parseInt(args[5]) : 7;
+		int height = args.length > 6 ? Integer.parseInt(args[6]) : 6;
+
+		GameServer server = new GameServer(height, width, parseAI(args[2]), threads, queued);
+		ServerLoadGenerator generator = new ServerLoadGenerator(server, games);
+		long start = System.nanoTime();
+		generator.run(concurrent);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		server.shutdown();
+
+		LatencyHistogram latencies = generator.getLatencies();
+		System.out.printf("%d games, %d moves in %.1f s (%.0f moves/s)%n", games, server.getMovesPlayed(), seconds,
+				server.getMovesPlayed() / seconds);
+		System.out.printf("move latency: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", latencies.getPercentile(50) / 1e6,
+				latencies.getPercentile(99) / 1e6, latencies.getMax() / 1e6);
+		System.out.printf("%d moves refused and retried, %d games failed%n", generator.getRetries(), generator.getFailures());
+	}
+}
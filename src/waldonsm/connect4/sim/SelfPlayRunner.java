@@ -0,0 +1,335 @@
+package waldonsm.connect4.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import waldonsm.connect4.ai.Connect4AI;
+import waldonsm.connect4.ai.Connect4AIFactory;
+import waldonsm.connect4.ai.MonteCarloAI;
+import waldonsm.connect4.ai.NegamaxAI;
+import waldonsm.connect4.ai.StupidAI;
+import waldonsm.connect4.model.Connect4Model;
+import waldonsm.connect4.model.Connect4ModelImpl;
+
+/**
+ * Plays two AIs against each other for many games, with no GUI, on as many threads as
+ * wanted.  The AIs take turns going first.
+ * <P>
+ * Every finished game is written to the output as soon as it is done, so games are in the
+ * order they finished, not the order they were started.  The output starts with the bytes
+ * <code>C4SP</code>, a version byte, and the board width, height and win length as bytes.
+ * Each game is then written as:
+ * <ul>
+ * <li>the game number, as a varint</li>
+ * <li>a flags byte: bit 0 is set if AI B moved first, bits 1-2 hold the winning player
+ * mark (0 for a draw)</li>
+ * <li>the number of moves, as a varint</li>
+ * <li>for each move, the column as a byte and the time taken to choose it in microseconds,
+ * as a varint</li>
+ * </ul>
+ * A varint is 7 bits per byte, low bits first, with the high bit set on every byte but the
+ * last.
+ */
+public class SelfPlayRunner {
+
+	/**
+	 * The first bytes of a self-play results file
+	 */
+	public static final byte[] MAGIC = {'C', '4', 'S', 'P'};
+	/**
+	 * The version of the file format written
+	 */
+	public static final int VERSION = 2;
+
+	private final int width;
+	private final int height;
+	private final int winLength;
+	private final Connect4AIFactory aiA;
+	private final Connect4AIFactory aiB;
+
+	private final AtomicInteger nextGame = new AtomicInteger();
+	private final AtomicLong winsA = new AtomicLong();
+	private final AtomicLong winsB = new AtomicLong();
+	private final AtomicLong draws = new AtomicLong();
+
+	/**
+	 * Creates a new runner for games between the AIs made by the given factories
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param aiA makes the first AI
+	 * @param aiB makes the second AI
+	 */
+	public SelfPlayRunner(int height, int width, Connect4AIFactory aiA, Connect4AIFactory aiB) {
+		this(height, width, Connect4Model.DEFAULT_WIN_LENGTH, aiA, aiB);
+	}
+
+	/**
+	 * Creates a new runner for games between the AIs made by the given factories, on a board
+	 * with the given win length
+	 * @param height the height of the board (number of rows)
+	 * @param width the width of the board (number of columns)
+	 * @param winLength the number of pieces in a row needed to win
+	 * @param aiA makes the first AI
+	 * @param aiB makes the second AI
+	 */
+	public SelfPlayRunner(int height, int width, int winLength, Connect4AIFactory aiA, Connect4AIFactory aiB) {
+		this.width = width;
+		this.height = height;
+		this.winLength = winLength;
+		this.aiA = aiA;
+		this.aiB = aiB;
+	}
+
+	/**
+	 * Plays the given number of games, and writes them to the given stream.  Returns when
+	 * all the games are done.  The stream is not closed.  If anything goes wrong the games
+	 * being played are finished, and every finished game is written, before giving up.
+	 * @param games the number of games to play
+	 * @param threads the number of games to play at once
+	 * @param output where to write the games
+	 * @throws IOException if writing to the stream fails
+	 * @throws InterruptedIOException if the thread is interrupted, in which case not all the
+	 * games are played
+	 * @throws RuntimeException if an AI fails
+	 */
+	public void run(final int games, int threads, OutputStream output) throws IOException {
+		nextGame.set(0);
+		winsA.set(0);
+		winsB.set(0);
+		draws.set(0);
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+		out.write(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(width);
+		out.writeByte(height);
+		out.writeByte(winLength);
+
+		final Throwable[] failure = new Throwable[1];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						playGames(games, out);
+					} catch (Throwable ex) {
+						// an IOException writing, or an AI failing
+						synchronized (failure) {
+							failure[0] = ex;
+						}
+						// make the other workers give up too
+						nextGame.set(games);
+					}
+				}
+			}, "Self-play " + i);
+			workers[i].start();
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < threads; i++) {
+			// the workers are still writing to the stream, so wait for them even if interrupted
+			while (workers[i].isAlive()) {
+				try {
+					workers[i].join();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+					nextGame.set(games);
+				}
+			}
+		}
+
+		IOException flushFailure = null;
+		try {
+			synchronized (out) {
+				out.flush();
+			}
+		} catch (IOException ex) {
+			flushFailure = ex;
+		}
+		Throwable cause;
+		synchronized (failure) {
+			cause = failure[0];
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (cause instanceof IOException)
+			throw (IOException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause != null)
+			throw (Error) cause;
+		if (flushFailure != null)
+			throw flushFailure;
+		if (interrupted)
+			throw new InterruptedIOException("Interrupted before all the games were played");
+	}
+
+	/**
+	 * The loop run by each worker: takes the next game number until there are none left
+	 */
+	private void playGames(int games, DataOutputStream out) throws IOException {
+		Connect4AI a = aiA.createAI();
+		Connect4AI b = aiB.createAI();
+		Connect4ModelImpl model = new Connect4ModelImpl(height, width, winLength);
+		int[] moves = new int[width * height];
+		long[] micros = new long[width * height];
+		byte[] record = new byte[16 + moves.length * 11];
+
+		int game;
+		while ((game = nextGame.getAndIncrement()) < games) {
+			boolean bFirst = game % 2 == 1;
+			Connect4AI player1 = bFirst ? b : a;
+			Connect4AI player2 = bFirst ? a : b;
+			model.clear();
+			player1.newGame();
+			player2.newGame();
+
+			int count = 0;
+			int winner = Connect4Model.EMPTY_MARK;
+			int mark = Connect4Model.PLAYER1_MARK;
+			while (count < moves.length) {
+				Connect4AI ai = mark == Connect4Model.PLAYER1_MARK ? player1 : player2;
+				long start = System.nanoTime();
+				int col = ai.chooseColumn(model);
+				micros[count] = (System.nanoTime() - start) / 1000;
+				int row = model.addPiece(col, mark);
+				if (row < 0)
+					throw new IllegalStateException("AI chose the full column " + col);
+				moves[count++] = col;
+				if (model.isWin(col, row)) {
+					winner = mark;
+					break;
+				}
+				mark = 3 - mark;
+			}
+
+			if (winner == Connect4Model.EMPTY_MARK) {
+				draws.incrementAndGet();
+			} else if ((winner == Connect4Model.PLAYER1_MARK) != bFirst) {
+				winsA.incrementAndGet();
+			} else {
+				winsB.incrementAndGet();
+			}
+
+			int len = writeVarInt(record, 0, game);
+			record[len++] = (byte) ((bFirst ? 1 : 0) | (winner << 1));
+			len = writeVarInt(record, len, count);
+			for (int i = 0; i < count; i++) {
+				record[len++] = (byte) moves[i];
+				len = writeVarInt(record, len, micros[i]);
+			}
+			synchronized (out) {
+				out.write(record, 0, len);
+			}
+		}
+	}
+
+	/**
+	 * Writes a non-negative number as a varint
+	 * @return the index after the last byte written
+	 */
+	private static int writeVarInt(byte[] buf, int pos, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Returns the number of games AI A has won in the current or last run
+	 * @return the number of games AI A has won in the current or last run
+	 */
+	public long getWinsA() {
+		return winsA.get();
+	}
+
+	/**
+	 * Returns the number of games AI B has won in the current or last run
+	 * @return the number of games AI B has won in the current or last run
+	 */
+	public long getWinsB() {
+		return winsB.get();
+	}
+
+	/**
+	 * Returns the number of games drawn in the current or last run
+	 * @return the number of games drawn in the current or last run
+	 */
+	public long getDraws() {
+		return draws.get();
+	}
+
+	/**
+	 * Makes an AI factory from a short description: <code>random</code> for StupidAI,
+	 * <code>negamax:N</code> for a NegamaxAI that thinks for N milliseconds a move, or
+	 * <code>mcts:N</code> for a MonteCarloAI that thinks for N milliseconds a move.
+	 * @param spec the description of the AI
+	 * @return a factory for the AI described
+	 */
+	public static Connect4AIFactory parseAI(String spec) {
+		if (spec.equals("random")) {
+			return new Connect4AIFactory() {
+				public Connect4AI createAI() {
+					return new StupidAI();
+				}
+			};
+		}
+		if (spec.startsWith("negamax")) {
+			final long millis = spec.startsWith("negamax:") ? Long.parseLong(spec.substring(8)) : 10;
+			return new Connect4AIFactory() {
+				public Connect4AI createAI() {
+					return new NegamaxAI(millis, 16);
+				}
+			};
+		}
+		if (spec.startsWith("mcts")) {
+			final long millis = spec.startsWith("mcts:") ? Long.parseLong(spec.substring(5)) : 10;
+			return new Connect4AIFactory() {
+				public Connect4AI createAI() {
+					return new MonteCarloAI(millis, 16, 1, null);
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unknown AI: " + spec);
+	}
+
+	/**
+	 * Runs a self-play match from the command line.
+	 * <P>
+	 * Usage: <code>SelfPlayRunner games output aiA aiB [width height [threads [winLength]]]</code>,
+	 * where the AIs are described as in parseAI.
+	 * @param args the command line arguments
+	 * @throws IOException if the output file can't be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: SelfPlayRunner games output aiA aiB [width height [threads [winLength]]]");
+			System.exit(1);
+		}
+		int games = Integer.parseInt(args[0]);
+		int width = args.length > 5 ? Integer.parseInt(args[4]) : 7;
+		int height = args.length > 5 ? Integer.parseInt(args[5]) : 6;
+		int threads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+		int winLength = args.length > 7 ? Integer.parseInt(args[7]) : Connect4Model.DEFAULT_WIN_LENGTH;
+
+		SelfPlayRunner runner = new SelfPlayRunner(height, width, winLength, parseAI(args[2]), parseAI(args[3]));
+		long start = System.nanoTime();
+		OutputStream out = new FileOutputStream(args[1]);
+		try {
+			runner.run(games, threads, out);
+		} finally {
+			out.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d games in %.1f s (%.0f games/hour)%n", games, seconds, games * 3600.0 / seconds);
+		System.out.printf("%s won %d, %s won %d, %d draws%n", args[2], runner.getWinsA(), args[3],
+				runner.getWinsB(), runner.getDraws());
+	}
+}